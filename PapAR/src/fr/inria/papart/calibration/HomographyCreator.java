@@ -8,10 +8,7 @@
  */
 package fr.inria.papart.calibration;
 
-import static org.bytedeco.javacpp.opencv_calib3d.cvFindHomography;
-import org.bytedeco.javacpp.opencv_core;
-import static org.bytedeco.javacpp.opencv_core.CV_32FC1;
-import static org.bytedeco.javacpp.opencv_core.cvCreateMat;
+import fr.inria.papart.procam.HomographySolver;
 import processing.core.PMatrix3D;
 import processing.core.PVector;
 import toxi.geom.Matrix4x4;
@@ -22,12 +19,12 @@ import toxi.geom.Matrix4x4;
  */
 public class HomographyCreator {
 
-    private opencv_core.CvMat cvMat;
-    private Matrix4x4 mat;
-    private PMatrix3D pmatrix;
+    private final double[] h = new double[9];
+    private final PMatrix3D pmatrix = new PMatrix3D();
 
-    private opencv_core.CvMat srcPoints;
-    private opencv_core.CvMat dstPoints;
+    // 3D points are homogeneous, 2D points get a z of 1.
+    private PVector[] srcPoints;
+    private PVector[] dstPoints;
 
     private final int srcDim;
     private final int dstDim;
@@ -46,28 +43,22 @@ public class HomographyCreator {
 
     private void init() {
         currentPoint = 0;
-        srcPoints = cvCreateMat(srcDim, nbPoints, CV_32FC1);
-        dstPoints = cvCreateMat(dstDim, nbPoints, CV_32FC1);
-        cvMat = cvCreateMat(3, 3, CV_32FC1);
+        srcPoints = new PVector[nbPoints];
+        dstPoints = new PVector[nbPoints];
+        for (int i = 0; i < nbPoints; i++) {
+            srcPoints[i] = new PVector();
+            dstPoints[i] = new PVector();
+        }
         homographyCalibrationOutput = new HomographyCalibration();
     }
-    
+
     public boolean addPoint(PVector src, PVector dst) {
-        addPointCvMat(srcPoints, src);
-        addPointCvMat(dstPoints, dst);
+        srcPoints[currentPoint].set(src.x, src.y, srcDim == 3 ? src.z : 1);
+        dstPoints[currentPoint].set(dst.x, dst.y, dstDim == 3 ? dst.z : 1);
         currentPoint++;
         return checkAndComputeHomography();
     }
 
-    private void addPointCvMat(opencv_core.CvMat points, PVector point) {
-        points.put(currentPoint, point.x);
-        points.put(currentPoint + nbPoints, point.y);
-        if (points == srcPoints && srcDim == 3
-                || points == dstPoints && dstDim == 3) {
-            points.put(currentPoint + (nbPoints * 2), point.z);
-        }
-    }
-
     private boolean checkAndComputeHomography() {
         if (currentPoint == nbPoints) {
             createHomography();
@@ -77,38 +68,23 @@ public class HomographyCreator {
     }
 
     private void createHomography() {
-        cvFindHomography(srcPoints, dstPoints, cvMat);
         currentPoint = 0;
+        if (!HomographySolver.solve(srcPoints, dstPoints, true, h)) {
+            System.err.println("HomographyCreator: degenerate points, homography not updated.");
+            return;
+        }
 
         if (srcDim == dstDim && srcDim == 2) {
-            mat = new Matrix4x4(cvMat.get(0), cvMat.get(1), 0, cvMat.get(2),
-                    cvMat.get(3), cvMat.get(4), 0, cvMat.get(5),
+            pmatrix.set((float) h[0], (float) h[1], 0, (float) h[2],
+                    (float) h[3], (float) h[4], 0, (float) h[5],
                     0, 0, 1, 0,
                     0, 0, 0, 1);
         } else {
-            mat = new Matrix4x4(cvMat.get(0), cvMat.get(1), cvMat.get(2), 0,
-                    cvMat.get(3), cvMat.get(4), cvMat.get(5), 0,
-                    cvMat.get(6), cvMat.get(7), cvMat.get(8), 0,
+            pmatrix.set((float) h[0], (float) h[1], (float) h[2], 0,
+                    (float) h[3], (float) h[4], (float) h[5], 0,
+                    (float) h[6], (float) h[7], (float) h[8], 0,
                     0, 0, 0, 1);
         }
-        this.pmatrix = new PMatrix3D(
-                (float) mat.matrix[0][0],
-                (float) mat.matrix[0][1],
-                (float) mat.matrix[0][2],
-                (float) mat.matrix[0][3],
-                (float) mat.matrix[1][0],
-                (float) mat.matrix[1][1],
-                (float) mat.matrix[1][2],
-                (float) mat.matrix[1][3],
-                (float) mat.matrix[2][0],
-                (float) mat.matrix[2][1],
-                (float) mat.matrix[2][2],
-                (float) mat.matrix[2][3],
-                (float) mat.matrix[3][0],
-                (float) mat.matrix[3][1],
-                (float) mat.matrix[3][2],
-                (float) mat.matrix[3][3]);
-
         homographyCalibrationOutput.setMatrix(pmatrix);
     }
 
@@ -123,7 +99,11 @@ public class HomographyCreator {
 
     @Override
     public String toString() {
-        return this.mat.toString();
+        Matrix4x4 mat = new Matrix4x4(pmatrix.m00, pmatrix.m01, pmatrix.m02, pmatrix.m03,
+                pmatrix.m10, pmatrix.m11, pmatrix.m12, pmatrix.m13,
+                pmatrix.m20, pmatrix.m21, pmatrix.m22, pmatrix.m23,
+                pmatrix.m30, pmatrix.m31, pmatrix.m32, pmatrix.m33);
+        return mat.toString();
     }
 
 }
@@ -0,0 +1,143 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+/**
+ * Lens distortion (or undistortion) sampled on a regular grid of pixels and
+ * bilinearly interpolated. It is built once from the exact model, and then
+ * queried in pure Java. Points outside of the grid use the exact model.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DistortionGrid {
+
+    /**
+     * Distance between two samples, in pixels.
+     */
+    public static int DEFAULT_CELL_SIZE = 4;
+
+    /**
+     * Extra area sampled around the image, in cells.
+     */
+    public static int DEFAULT_MARGIN = 4;
+
+    /**
+     * Exact pixel to pixel mapping.
+     */
+    public interface PixelMapping {
+
+        /**
+         * @param x
+         * @param y
+         * @return the mapped x and y.
+         */
+        double[] map(double x, double y);
+    }
+
+    private final PixelMapping mapping;
+    private final int cellSize;
+    private final float invCellSize;
+    private final float originX, originY;
+    private final int nbX, nbY;
+
+    // Mapped coordinates of each sample, x and y interleaved.
+    private final float[] samples;
+
+    /**
+     * @param mapping exact model.
+     * @param width image width.
+     * @param height image height.
+     */
+    public DistortionGrid(PixelMapping mapping, int width, int height) {
+        this(mapping, width, height, DEFAULT_CELL_SIZE, DEFAULT_MARGIN);
+    }
+
+    /**
+     * @param mapping exact model.
+     * @param width image width.
+     * @param height image height.
+     * @param cellSize distance between two samples, in pixels.
+     * @param margin extra area sampled around the image, in cells.
+     */
+    public DistortionGrid(PixelMapping mapping, int width, int height, int cellSize, int margin) {
+        this.mapping = mapping;
+        this.cellSize = cellSize;
+        this.invCellSize = 1f / cellSize;
+        this.originX = -margin * cellSize;
+        this.originY = -margin * cellSize;
+        this.nbX = (width + cellSize - 1) / cellSize + 2 * margin + 1;
+        this.nbY = (height + cellSize - 1) / cellSize + 2 * margin + 1;
+        this.samples = new float[nbX * nbY * 2];
+
+        int k = 0;
+        for (int j = 0; j < nbY; j++) {
+            for (int i = 0; i < nbX; i++) {
+                double[] out = mapping.map(originX + i * cellSize, originY + j * cellSize);
+                samples[k++] = (float) out[0];
+                samples[k++] = (float) out[1];
+            }
+        }
+    }
+
+    /**
+     * Map a point.
+     *
+     * @param x
+     * @param y
+     * @param out mapped x and y, written at offset.
+     * @param offset
+     */
+    public void map(float x, float y, float[] out, int offset) {
+        float gx = (x - originX) * invCellSize;
+        float gy = (y - originY) * invCellSize;
+        int i = (int) Math.floor(gx);
+        int j = (int) Math.floor(gy);
+
+        if (i < 0 || j < 0 || i >= nbX - 1 || j >= nbY - 1) {
+            double[] exact = mapping.map(x, y);
+            out[offset] = (float) exact[0];
+            out[offset + 1] = (float) exact[1];
+            return;
+        }
+
+        float fx = gx - i;
+        float fy = gy - j;
+        int k00 = (j * nbX + i) * 2;
+        int k10 = k00 + 2;
+        int k01 = k00 + nbX * 2;
+        int k11 = k01 + 2;
+
+        float w00 = (1 - fx) * (1 - fy);
+        float w10 = fx * (1 - fy);
+        float w01 = (1 - fx) * fy;
+        float w11 = fx * fy;
+
+        out[offset] = w00 * samples[k00] + w10 * samples[k10]
+                + w01 * samples[k01] + w11 * samples[k11];
+        out[offset + 1] = w00 * samples[k00 + 1] + w10 * samples[k10 + 1]
+                + w01 * samples[k01 + 1] + w11 * samples[k11 + 1];
+    }
+
+    /**
+     * Map points, x and y interleaved.
+     *
+     * @param xy
+     * @param out can be xy.
+     * @param count number of points.
+     */
+    public void map(float[] xy, float[] out, int count) {
+        for (int p = 0; p < count * 2; p += 2) {
+            map(xy[p], xy[p + 1], out, p);
+        }
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+}
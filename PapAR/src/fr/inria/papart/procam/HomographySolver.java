@@ -0,0 +1,309 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import processing.core.PVector;
+
+/**
+ * Homography estimation in Java, for the small point sets of the screens and
+ * views. Four correspondences are solved in closed form without allocation
+ * (square to quad mappings), more points by normalized least squares.
+ *
+ * The homography is a 3x3 row-major array, normalized so that h[8] is 1 as
+ * with cvFindHomography.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class HomographySolver {
+
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Homography from src to dst.
+     *
+     * @param src x and y of each point.
+     * @param dst x and y of each point.
+     * @param count number of points, at least 4.
+     * @param h 3x3 result.
+     * @return false if the points are degenerate.
+     */
+    public static boolean solve(float[] src, float[] dst, int count, double[] h) {
+        if (count == 4) {
+            return solveQuads(src[0], src[1], src[2], src[3], src[4], src[5], src[6], src[7],
+                    dst[0], dst[1], dst[2], dst[3], dst[4], dst[5], dst[6], dst[7], h);
+        }
+        return solveLeastSquares(src, dst, count, h);
+    }
+
+    /**
+     * Homography from src to dst. The points with a z coordinate are
+     * homogeneous (x / z, y / z), as with cvFindHomography.
+     *
+     * @param src
+     * @param dst
+     * @param homogeneous true to divide by the z coordinates.
+     * @param h 3x3 result.
+     * @return false if the points are degenerate.
+     */
+    public static boolean solve(PVector[] src, PVector[] dst, boolean homogeneous, double[] h) {
+        if (src.length == 4) {
+            return solveQuads(x(src[0], homogeneous), y(src[0], homogeneous),
+                    x(src[1], homogeneous), y(src[1], homogeneous),
+                    x(src[2], homogeneous), y(src[2], homogeneous),
+                    x(src[3], homogeneous), y(src[3], homogeneous),
+                    x(dst[0], homogeneous), y(dst[0], homogeneous),
+                    x(dst[1], homogeneous), y(dst[1], homogeneous),
+                    x(dst[2], homogeneous), y(dst[2], homogeneous),
+                    x(dst[3], homogeneous), y(dst[3], homogeneous), h);
+        }
+        float[] srcXY = new float[src.length * 2];
+        float[] dstXY = new float[dst.length * 2];
+        for (int i = 0; i < src.length; i++) {
+            srcXY[i * 2] = (float) x(src[i], homogeneous);
+            srcXY[i * 2 + 1] = (float) y(src[i], homogeneous);
+            dstXY[i * 2] = (float) x(dst[i], homogeneous);
+            dstXY[i * 2 + 1] = (float) y(dst[i], homogeneous);
+        }
+        return solveLeastSquares(srcXY, dstXY, src.length, h);
+    }
+
+    private static double x(PVector p, boolean homogeneous) {
+        return homogeneous && p.z != 0 ? p.x / p.z : p.x;
+    }
+
+    private static double y(PVector p, boolean homogeneous) {
+        return homogeneous && p.z != 0 ? p.y / p.z : p.y;
+    }
+
+    /**
+     * Exact homography of four correspondences: dst quad mapping times the
+     * inverse of the src quad mapping.
+     */
+    private static boolean solveQuads(double sx0, double sy0, double sx1, double sy1,
+            double sx2, double sy2, double sx3, double sy3,
+            double dx0, double dy0, double dx1, double dy1,
+            double dx2, double dy2, double dx3, double dy3, double[] h) {
+
+        // Square to dst quad.
+        double a = 0, b = 0, c = 0, d = 0, e = 0, f = 0, g = 0, i = 0;
+        {
+            double ex1 = dx1 - dx2, ex2 = dx3 - dx2, ey1 = dy1 - dy2, ey2 = dy3 - dy2;
+            double sx = dx0 - dx1 + dx2 - dx3, sy = dy0 - dy1 + dy2 - dy3;
+            double det = ex1 * ey2 - ex2 * ey1;
+            if (Math.abs(det) < EPSILON) {
+                return false;
+            }
+            g = (sx * ey2 - ex2 * sy) / det;
+            i = (ex1 * sy - sx * ey1) / det;
+            a = dx1 - dx0 + g * dx1;
+            b = dx3 - dx0 + i * dx3;
+            c = dx0;
+            d = dy1 - dy0 + g * dy1;
+            e = dy3 - dy0 + i * dy3;
+            f = dy0;
+        }
+
+        // Square to src quad.
+        double ex1 = sx1 - sx2, ex2 = sx3 - sx2, ey1 = sy1 - sy2, ey2 = sy3 - sy2;
+        double sx = sx0 - sx1 + sx2 - sx3, sy = sy0 - sy1 + sy2 - sy3;
+        double det = ex1 * ey2 - ex2 * ey1;
+        if (Math.abs(det) < EPSILON) {
+            return false;
+        }
+        double sg = (sx * ey2 - ex2 * sy) / det;
+        double si = (ex1 * sy - sx * ey1) / det;
+        double sa = sx1 - sx0 + sg * sx1;
+        double sb = sx3 - sx0 + si * sx3;
+        double sc = sx0;
+        double sd = sy1 - sy0 + sg * sy1;
+        double se = sy3 - sy0 + si * sy3;
+        double sf = sy0;
+
+        // Adjugate of the src mapping: its inverse up to a scale.
+        double A = se - sf * si;
+        double B = sc * si - sb;
+        double C = sb * sf - sc * se;
+        double D = sf * sg - sd;
+        double E = sa - sc * sg;
+        double F = sc * sd - sa * sf;
+        double G = sd * si - se * sg;
+        double H = sb * sg - sa * si;
+        double I = sa * se - sb * sd;
+
+        h[0] = a * A + b * D + c * G;
+        h[1] = a * B + b * E + c * H;
+        h[2] = a * C + b * F + c * I;
+        h[3] = d * A + e * D + f * G;
+        h[4] = d * B + e * E + f * H;
+        h[5] = d * C + e * F + f * I;
+        h[6] = g * A + i * D + G;
+        h[7] = g * B + i * E + H;
+        h[8] = g * C + i * F + I;
+        return normalize(h);
+    }
+
+    /**
+     * Normalized DLT with h[8] = 1, solved from the normal equations.
+     */
+    private static boolean solveLeastSquares(float[] src, float[] dst, int count, double[] h) {
+        if (count < 4) {
+            return false;
+        }
+
+        // Hartley normalization of both point sets.
+        double[] ts = normalization(src, count);
+        double[] td = normalization(dst, count);
+
+        // Normal equations of the 8 unknowns, augmented.
+        double[] m = new double[8 * 9];
+        double[] row = new double[9];
+        for (int p = 0; p < count; p++) {
+            double x = (src[p * 2] - ts[1]) * ts[0];
+            double y = (src[p * 2 + 1] - ts[2]) * ts[0];
+            double u = (dst[p * 2] - td[1]) * td[0];
+            double v = (dst[p * 2 + 1] - td[2]) * td[0];
+
+            // u = (h0 x + h1 y + h2) / (h6 x + h7 y + 1)
+            row[0] = x;
+            row[1] = y;
+            row[2] = 1;
+            row[3] = row[4] = row[5] = 0;
+            row[6] = -u * x;
+            row[7] = -u * y;
+            row[8] = u;
+            accumulate(m, row);
+
+            // v = (h3 x + h4 y + h5) / (h6 x + h7 y + 1)
+            row[0] = row[1] = row[2] = 0;
+            row[3] = x;
+            row[4] = y;
+            row[5] = 1;
+            row[6] = -v * x;
+            row[7] = -v * y;
+            row[8] = v;
+            accumulate(m, row);
+        }
+
+        double[] hn = new double[9];
+        if (!gaussSolve(m, hn)) {
+            return false;
+        }
+        hn[8] = 1;
+
+        // h = Td^-1 * Hn * Ts
+        double s = ts[0], scx = ts[1], scy = ts[2];
+        double ids = 1 / td[0], dcx = td[1], dcy = td[2];
+        for (int r = 0; r < 3; r++) {
+            double n0 = hn[r * 3], n1 = hn[r * 3 + 1], n2 = hn[r * 3 + 2];
+            // Hn * Ts
+            h[r * 3] = n0 * s;
+            h[r * 3 + 1] = n1 * s;
+            h[r * 3 + 2] = n2 - (n0 * scx + n1 * scy) * s;
+        }
+        for (int col = 0; col < 3; col++) {
+            double r0 = h[col], r1 = h[3 + col], r2 = h[6 + col];
+            h[col] = ids * r0 + dcx * r2;
+            h[3 + col] = ids * r1 + dcy * r2;
+        }
+        return normalize(h);
+    }
+
+    // Scale, center x, center y.
+    private static double[] normalization(float[] points, int count) {
+        double cx = 0, cy = 0;
+        for (int p = 0; p < count; p++) {
+            cx += points[p * 2];
+            cy += points[p * 2 + 1];
+        }
+        cx /= count;
+        cy /= count;
+        double meanDist = 0;
+        for (int p = 0; p < count; p++) {
+            meanDist += Math.hypot(points[p * 2] - cx, points[p * 2 + 1] - cy);
+        }
+        meanDist /= count;
+        double scale = meanDist < EPSILON ? 1 : Math.sqrt(2) / meanDist;
+        return new double[]{scale, cx, cy};
+    }
+
+    // Add row^T row to the augmented normal matrix.
+    private static void accumulate(double[] m, double[] row) {
+        for (int r = 0; r < 8; r++) {
+            double v = row[r];
+            if (v == 0) {
+                continue;
+            }
+            for (int c = 0; c < 9; c++) {
+                m[r * 9 + c] += v * row[c];
+            }
+        }
+    }
+
+    // Gaussian elimination with partial pivoting of an 8x9 augmented matrix.
+    private static boolean gaussSolve(double[] m, double[] out) {
+        for (int col = 0; col < 8; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < 8; r++) {
+                if (Math.abs(m[r * 9 + col]) > Math.abs(m[pivot * 9 + col])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(m[pivot * 9 + col]) < EPSILON) {
+                return false;
+            }
+            if (pivot != col) {
+                for (int c = 0; c < 9; c++) {
+                    double t = m[col * 9 + c];
+                    m[col * 9 + c] = m[pivot * 9 + c];
+                    m[pivot * 9 + c] = t;
+                }
+            }
+            for (int r = col + 1; r < 8; r++) {
+                double factor = m[r * 9 + col] / m[col * 9 + col];
+                for (int c = col; c < 9; c++) {
+                    m[r * 9 + c] -= factor * m[col * 9 + c];
+                }
+            }
+        }
+        for (int r = 7; r >= 0; r--) {
+            double sum = m[r * 9 + 8];
+            for (int c = r + 1; c < 8; c++) {
+                sum -= m[r * 9 + c] * out[c];
+            }
+            out[r] = sum / m[r * 9 + r];
+        }
+        return true;
+    }
+
+    private static boolean normalize(double[] h) {
+        if (Math.abs(h[8]) < EPSILON) {
+            return false;
+        }
+        double inv = 1 / h[8];
+        for (int k = 0; k < 9; k++) {
+            h[k] *= inv;
+        }
+        return true;
+    }
+
+    /**
+     * Apply a homography to a point.
+     *
+     * @param h
+     * @param x
+     * @param y
+     * @param out x and y, written at offset.
+     * @param offset
+     */
+    public static void transform(double[] h, float x, float y, float[] out, int offset) {
+        double w = h[6] * x + h[7] * y + h[8];
+        out[offset] = (float) ((h[0] * x + h[1] * y + h[2]) / w);
+        out[offset + 1] = (float) ((h[3] * x + h[4] * y + h[5]) / w);
+    }
+}
@@ -9,12 +9,16 @@
 package fr.inria.papart.procam;
 
 import fr.inria.papart.procam.camera.Camera;
+import fr.inria.papart.procam.camera.CameraFrame;
 import fr.inria.papart.procam.display.ARDisplay;
-import fr.inria.papart.multitouch.OneEuroFilter;
+import fr.inria.papart.tracking.ARToolKitPlusDetector;
+import fr.inria.papart.tracking.DetectionRegion;
 import fr.inria.papart.tracking.ObjectFinder;
+import fr.inria.papart.tracking.PoseSnapshot;
 import org.bytedeco.javacpp.ARToolKitPlus;
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bytedeco.javacpp.ARToolKitPlus.TrackerMultiMarker;
@@ -34,25 +38,12 @@ public class MarkerBoard {
     private final String fileName;
     protected float width;
     protected float height;
-    protected ArrayList<Camera> cameras;
-    protected ArrayList<Boolean> drawingMode;
-    protected ArrayList<Float> minDistanceDrawingMode;
-    protected ArrayList<PMatrix3D> transfos = new ArrayList<PMatrix3D>();
-    protected ArrayList trackers;
-    protected ArrayList<OneEuroFilter[]> filters;
-    protected ArrayList<PVector> lastPos;
-    protected ArrayList<Integer> nextTimeEvent;
-    protected ArrayList<Integer> updateStatus;
+    protected final ConcurrentHashMap<Camera, TrackingState> states = new ConcurrentHashMap<>();
     protected PApplet applet;
 
     protected MarkerType type = null;
 
     private PVector[] objectPoints;
-    private PVector[] imagePoints;
-    private final PVector topLeft = new PVector();
-    private final PVector topRight = new PVector();
-    private final PVector botLeft = new PVector();
-    private final PVector botRight = new PVector();
 
     private static final int updateTime = 1000; // 1 sec
     static public final int NORMAL = 1;
@@ -64,6 +55,58 @@ public class MarkerBoard {
         ARTOOLKITPLUS, JAVACV_FINDER
     }
 
+    /**
+     * Tracking of the board by one camera. It is updated by a single thread
+     * at a time (the lock of the state), and publishes an immutable pose
+     * after each update.
+     */
+    protected static class TrackingState {
+
+        Object tracker;
+        final DetectionRegion region = new DetectionRegion();
+        final AtomicReference<PoseSnapshot> pose = new AtomicReference<>(PoseSnapshot.INITIAL);
+
+        // Filtered pose, owned by the updating thread.
+        final PMatrix3D transfo = new PMatrix3D();
+        volatile PoseFilter filter = null;
+
+        // Last measured pose, 3x4 row-major, and its filtered version.
+        final float[] measure = new float[12];
+        final float[] filtered = new float[12];
+
+        volatile boolean drawingMode = false;
+        volatile float minDistanceDrawingMode = 2f;
+        final PVector lastPos = new PVector();
+
+        volatile int nextTimeEvent = 0;
+        volatile int updateStatus = NORMAL;
+        long lastSequence = 0;
+
+        // When staging, the poses are kept here instead of being published.
+        boolean staging = false;
+        PoseSnapshot staged = null;
+
+        // Image boards: corners in the image and pose estimation.
+        final PVector[] imagePoints = {new PVector(), new PVector(), new PVector(), new PVector()};
+        final PMatrix3D solvedPose = new PMatrix3D();
+        PoseSolver poseSolver = null;
+
+        TrackingState(Object tracker) {
+            this.tracker = tracker;
+        }
+
+        void publish(double timestamp, float confidence, int nbMarkers) {
+            PoseSnapshot last = staged != null ? staged : pose.get();
+            PoseSnapshot next = new PoseSnapshot(transfo, last.getVersion() + 1,
+                    timestamp, confidence, nbMarkers);
+            if (staging) {
+                staged = next;
+            } else {
+                pose.set(next);
+            }
+        }
+    }
+
     private MarkerBoard() {
         this.fileName = "invalidCamera";
     }
@@ -78,15 +121,7 @@ public class MarkerBoard {
         this.height = height;
         checkType(fileName);
 
-        cameras = new ArrayList<Camera>();
-
-        if (type == MarkerType.ARTOOLKITPLUS) {
-            trackers = new ArrayList<ARToolKitPlus.TrackerMultiMarker>();
-        }
         if (type == MarkerType.JAVACV_FINDER) {
-            trackers = new ArrayList<ObjectFinder>();
-
-            imagePoints = new PVector[4];
             objectPoints = new PVector[4];
 
             objectPoints[0] = new PVector(0, 0, 0);
@@ -97,14 +132,6 @@ public class MarkerBoard {
             Logger logger = Logger.getLogger(ObjectFinder.class.getName());
             logger.setLevel(Level.OFF);
         }
-
-        filters = new ArrayList<OneEuroFilter[]>();
-        drawingMode = new ArrayList<Boolean>();
-        minDistanceDrawingMode = new ArrayList<Float>();
-        lastPos = new ArrayList<PVector>();
-        nextTimeEvent = new ArrayList<Integer>();
-        updateStatus = new ArrayList<Integer>();
-
     }
 
     private void checkType(String name) {
@@ -125,19 +152,8 @@ public class MarkerBoard {
             addARtoolkitPlusTracker(camera);
         }
         if (this.type == MarkerType.JAVACV_FINDER) {
-            addJavaCVTracker();
+            addJavaCVTracker(camera);
         }
-
-        this.cameras.add(camera);
-
-        this.drawingMode.add(false);
-        this.lastPos.add(new PVector());
-        this.minDistanceDrawingMode.add(2f);
-        this.nextTimeEvent.add(0);
-        this.updateStatus.add(NORMAL);
-
-        OneEuroFilter[] filter = null;
-        this.filters.add(filter);
     }
 
 //        /**
@@ -162,86 +178,51 @@ public class MarkerBoard {
 //    
     private void addARtoolkitPlusTracker(Camera camera) {
 
-        // create a tracker that does:
-        //  - 6x6 sized marker images (required for binary markers)
-        //  - samples at a maximum of 6x6 
-        //  - works with luminance (gray) images
-        //  - can load a maximum of 0 non-binary pattern
-        //  - can detect a maximum of 8 patterns in one image
-        TrackerMultiMarker tracker = new TrackerMultiMarker(camera.width(), camera.height(), 20, 6, 6, 6, 5);
-
-        // Working in gray images. 
-        int pixfmt = ARToolKitPlus.PIXEL_FORMAT_LUM;
-
-//        switch (camera.getPixelFormat()) {
-//            case BGR:
-//                pixfmt = ARToolKitPlus.PIXEL_FORMAT_BGR;
-//                break;
-//            case RGB:
-//                pixfmt = ARToolKitPlus.PIXEL_FORMAT_RGB;
-//                break;
-//            case ARGB: // closest, not the same.
-//                pixfmt = ARToolKitPlus.PIXEL_FORMAT_ABGR;
-//                break;
-//            case RGBA:
-//                pixfmt = ARToolKitPlus.PIXEL_FORMAT_RGBA;
-//            default:
-//                throw new RuntimeException("ARtoolkit : Camera pixel format unknown");
-//        }
-        tracker.setPixelFormat(pixfmt);
-        tracker.setBorderWidth(0.125f);
-        tracker.activateAutoThreshold(true);
-//        tracker.activateAutoThreshold(false);
-//            tracker.setUndistortionMode(ARToolKitPlus.UNDIST_NONE);
-        tracker.setPoseEstimator(ARToolKitPlus.POSE_ESTIMATOR_RPP);
-
-//            tracker.setPoseEstimator(ARToolKitPlus.POSE_ESTIMATOR_ORIGINAL_CONT);
-        tracker.setMarkerMode(ARToolKitPlus.MARKER_ID_BCH);
-//        tracker.setImageProcessingMode(ARToolKitPlus.IMAGE_FULL_RES);
-        tracker.setImageProcessingMode(ARToolKitPlus.IMAGE_HALF_RES);
-  
-        tracker.setUseDetectLite(false);
-//        tracker.setUseDetectLite(true);
-
-        // Initialize the tracker, with camera parameters and marker config. 
-        if (!tracker.init(camera.getCalibrationARToolkit(), this.getFileName(), 1.0f, 10000.f)) {
-            System.err.println("Init ARTOOLKIT Error " + camera.getCalibrationARToolkit() + " " + this.getFileName());
-        }
-
-//        float[] transfo = new float[16];
-//        for (int i = 0; i < 3; i++) {
-//            transfo[12 + i] = 0;
-//        }
-//        transfo[15] = 0;
-        PMatrix3D tr = new PMatrix3D();
-        this.trackers.add(tracker);
-        this.transfos.add(tr);
+        // The tracker of the board holds its configuration and estimates its
+        // pose, the markers are detected once for all the boards of the camera.
+        TrackerMultiMarker tracker = ARToolKitPlusDetector.createTracker(camera, this.getFileName());
+        camera.getARToolKitPlusDetector().addBoard(this, this.getFileName(), tracker);
+
+        states.put(camera, new TrackingState(tracker));
+    }
+
+    /**
+     * Register a camera whose poses of the board are measured elsewhere, and
+     * given by updatePosition(camera, trans, ...).
+     *
+     * @param applet
+     * @param camera
+     */
+    public void addExternalTracker(PApplet applet, Camera camera) {
+        this.applet = applet;
+        states.put(camera, new TrackingState(null));
     }
 
-    private void addJavaCVTracker() {
+    private void addJavaCVTracker(Camera camera) {
         IplImage imgToFind = cvLoadImage(this.fileName);
 
         ObjectFinder finder = new ObjectFinder(imgToFind);
 //        finder.getSettings().setUseFLANN(true);
 //        finder.getSettings().setMatchesMin(6);
 
-        this.trackers.add(finder);
-        this.transfos.add(new PMatrix3D());
+        states.put(camera, new TrackingState(finder));
     }
 
-    private int getId(Camera camera) {
-        return cameras.indexOf(camera);
+    private TrackingState getState(Camera camera) {
+        TrackingState state = states.get(camera);
+        if (state == null) {
+            throw new RuntimeException("The board " + this.fileName + " is"
+                    + " not registered with the camera you asked");
+        }
+        return state;
     }
 
     public void setFiltering(Camera camera, double freq, double minCutOff) {
-        int id = cameras.indexOf(camera);
-        OneEuroFilter[] filter = createFilter(freq, minCutOff);
-        filters.set(id, filter);
+        getState(camera).filter = createFilter(freq, minCutOff);
     }
 
     public void removeFiltering(Camera camera) {
-        int id = cameras.indexOf(camera);
-        filters.remove(id);
+        getState(camera).filter = null;
     }
 
     public void setDrawingMode(Camera camera, boolean dm) {
@@ -249,52 +230,40 @@ public class MarkerBoard {
     }
 
     public void setDrawingMode(Camera camera, boolean dm, float dist) {
-        int id = getId(camera);
-
-        drawingMode.set(id, dm);
-        minDistanceDrawingMode.set(id, dist);
+        TrackingState state = getState(camera);
+        state.minDistanceDrawingMode = dist;
+        state.drawingMode = dm;
     }
 
     public void setFakeLocation(Camera camera, PMatrix3D location) {
-        int id = cameras.indexOf(camera);
-        PMatrix3D transfo = (PMatrix3D) transfos.get(id);
-        transfo.set(location);
-    }
-
-    private OneEuroFilter[] createFilter(double freq, double minCutOff) {
-        OneEuroFilter[] f = new OneEuroFilter[12];
-        try {
-            for (int i = 0; i < 12; i++) {
-                f[i] = new OneEuroFilter(freq);
-                f[i].setFrequency(freq);
-                f[i].setMinCutoff(minCutOff);
-            }
-        } catch (Exception e) {
-            System.out.println("Filter init error" + e);
+        TrackingState state = getState(camera);
+        synchronized (state) {
+            state.transfo.set(location);
+            state.publish(System.nanoTime() / 1e9, 1, 0);
         }
+    }
 
-        return f;
+    private PoseFilter createFilter(double freq, double minCutOff) {
+        return new PoseFilter(freq, minCutOff);
     }
 
 //    public MultiTracker getTracker() {
 //        return this.tracker;
 //    }
     public void forceUpdate(Camera camera, int time) {
-        int id = getId(camera);
-        nextTimeEvent.set(id, applet.millis() + time);
-        updateStatus.set(id, FORCE_UPDATE);
+        TrackingState state = getState(camera);
+        state.nextTimeEvent = applet.millis() + time;
+        state.updateStatus = FORCE_UPDATE;
     }
 
     public void blockUpdate(Camera camera, int time) {
-        int id = getId(camera);
-        nextTimeEvent.set(id, applet.millis() + time);
-        updateStatus.set(id, BLOCK_UPDATE);
+        TrackingState state = getState(camera);
+        state.nextTimeEvent = applet.millis() + time;
+        state.updateStatus = BLOCK_UPDATE;
     }
 
     public boolean isMoving(Camera camera) {
-        int id = getId(camera);
-//        nextTimeEvent.set(id, applet.millis() + time);
-        int mode = updateStatus.get(id);
+        int mode = getState(camera).updateStatus;
 
         if (mode == BLOCK_UPDATE) {
             return false;
@@ -306,38 +275,130 @@ public class MarkerBoard {
         return true;
     }
 
-    private PVector getPositionVector(int id) {
-        PMatrix3D transfo = (PMatrix3D) transfos.get(id);
-        return new PVector(transfo.m03, transfo.m13, transfo.m23);
-    }
-
     // We suppose that the ARDisplay is the one of the camera...
     public PVector getBoardLocation(Camera camera, ARDisplay display) {
-        int id = cameras.indexOf(camera);
-        PVector v = getPositionVector(id);
+        PoseSnapshot pose = getPose(camera);
+        float[] xyz = {pose.getX(), pose.getY(), pose.getZ()};
 
         // Apply extrinsics if required.
         PMatrix3D extr = display.getExtrinsics();
         if (extr != null) {
-            PVector v2 = new PVector();
-            extr.mult(v, v2);
-            v = v2;
+            float x = xyz[0], y = xyz[1], z = xyz[2];
+            xyz[0] = extr.m00 * x + extr.m01 * y + extr.m02 * z + extr.m03;
+            xyz[1] = extr.m10 * x + extr.m11 * y + extr.m12 * z + extr.m13;
+            xyz[2] = extr.m20 * x + extr.m21 * y + extr.m22 * z + extr.m23;
+        }
+        float[] uv = new float[2];
+        display.getProjectiveDeviceP().worldToPixels(xyz, uv, 1, true);
+        return new PVector(uv[0], uv[1]);
+    }
+
+    /**
+     * Update the position with a frame of the camera, using its shared gray
+     * image.
+     *
+     * @param frame
+     */
+    public void updatePosition(CameraFrame frame) {
+        updatePosition(frame, frame.getDerivedImages().getGray());
+    }
+
+    /**
+     * Update the position with a frame of the camera. Frames older than the
+     * last one used are ignored, the filters use the capture time.
+     *
+     * @param frame
+     * @param img image of the frame to use (color or gray).
+     */
+    public void updatePosition(CameraFrame frame, IplImage img) {
+        Camera camera = frame.getCamera();
+        TrackingState state = getState(camera);
+        synchronized (state) {
+            if (frame.getSequence() <= state.lastSequence) {
+                return;
+            }
+            state.lastSequence = frame.getSequence();
+            updatePosition(state, camera, img, frame.getSequence(), frame.getCaptureTimeSeconds());
         }
-        PVector px = display.getProjectiveDeviceP().worldToPixel(v, true);
-        return px;
     }
 
-    public synchronized void updatePosition(Camera camera, IplImage img) {
+    /**
+     * Update the position with a frame of the camera, using its shared gray
+     * image, without publishing the new pose. The tracking of a camera uses
+     * it to publish the poses of all the boards of a frame together, with
+     * publishPose().
+     *
+     * @param frame
+     * @return the new pose, or the current one if it did not change.
+     */
+    public PoseSnapshot updateStagedPosition(CameraFrame frame) {
+        TrackingState state = getState(frame.getCamera());
+        synchronized (state) {
+            state.staging = true;
+            try {
+                updatePosition(frame);
+            } finally {
+                state.staging = false;
+            }
+            PoseSnapshot pose = state.staged != null ? state.staged : state.pose.get();
+            state.staged = null;
+            return pose;
+        }
+    }
 
-        int id = cameras.indexOf(camera);
-        if (id == -1) {
-            throw new RuntimeException("The board " + this.fileName + " is"
-                    + " not registered with the camera you asked");
+    /**
+     * Publish a pose given by updateStagedPosition().
+     *
+     * @param camera
+     * @param pose
+     */
+    public void publishPose(Camera camera, PoseSnapshot pose) {
+        TrackingState state = getState(camera);
+        synchronized (state) {
+            // A newer pose may have been set in the meantime (fake location).
+            if (pose.getVersion() > state.pose.get().getVersion()) {
+                state.pose.set(pose);
+            }
+        }
+    }
+
+    public void updatePosition(Camera camera, IplImage img) {
+        TrackingState state = getState(camera);
+        synchronized (state) {
+            updatePosition(state, camera, img, -1, System.nanoTime() / 1e9);
+        }
+    }
+
+    /**
+     * Update the position with a measured pose, filtered and published like
+     * the ARToolKitPlus ones.
+     *
+     * @param camera
+     * @param trans 3x4 row-major pose, as ARToolKitPlus trans.
+     * @param confidence from 0 to 1.
+     * @param nbMarkers markers used to compute the pose.
+     * @param timestamp capture time, in seconds.
+     */
+    public void updatePosition(Camera camera, float[] trans, float confidence,
+            int nbMarkers, double timestamp) {
+        TrackingState state = getState(camera);
+        synchronized (state) {
+            int currentTime = applet.millis();
+            int endTime = state.nextTimeEvent;
+            int mode = state.updateStatus;
+            if (mode == BLOCK_UPDATE && currentTime < endTime) {
+                return;
+            }
+            System.arraycopy(trans, 0, state.measure, 0, 12);
+            updateMeasure(state, currentTime, endTime, mode, timestamp, confidence, nbMarkers);
         }
+    }
+
+    private void updatePosition(TrackingState state, Camera camera, IplImage img, long sequence, double timestamp) {
 
         int currentTime = applet.millis();
-        int endTime = nextTimeEvent.get(id);
-        int mode = updateStatus.get(id);
+        int endTime = state.nextTimeEvent;
+        int mode = state.updateStatus;
 
         // If the update is still blocked
         if (mode == BLOCK_UPDATE && currentTime < endTime) {
@@ -346,235 +407,228 @@ public class MarkerBoard {
 
         ///////////// Javacv UPDATE ////////////////////
         if (type == MarkerType.JAVACV_FINDER) {
-            updateJavaCVFinderPosition(id, currentTime, endTime, mode, camera, img);
+            updateJavaCVFinderPosition(state, currentTime, endTime, mode, camera, img, timestamp);
         }
 
         ///////////// ARTOOLKITPLUS UPDATE ////////////////////
         if (type == MarkerType.ARTOOLKITPLUS) {
-            updateArtoolkitPosition(id, currentTime, endTime, mode, camera, img);
+            updateArtoolkitPosition(state, currentTime, endTime, mode, camera, img, sequence, timestamp);
 
         }
 
     }
 
-    private void updateJavaCVFinderPosition(int id, int currentTime, int endTime, int mode, Camera camera, IplImage img) {
+    private void updateJavaCVFinderPosition(TrackingState state, int currentTime, int endTime, int mode, Camera camera, IplImage img, double timestamp) {
+
+        ObjectFinder finder = (ObjectFinder) state.tracker;
 
-        ObjectFinder finder = (ObjectFinder) trackers.get(id);
+        // Search around the last position when it is known.
+        DetectionRegion region = state.region;
+        ProjectiveDeviceP pdp = camera.getProjectiveDevice();
+        boolean distort = !camera.isFrameUndistorted() && pdp.handleDistorsions();
+        boolean useRegion = region.predict(state.transfo, width, height, pdp, distort);
 
         // Find the markers
-        double[] corners = finder.find(img);
+        double[] corners = finder.find(useRegion ? region.crop(img) : img);
 
         // one use... HACK
         finder = new ObjectFinder(finder.getSettings());
-        trackers.set(id, finder);
+        state.tracker = finder;
 
         if (corners == null) {
+            region.missed();
+            // Lost, the next pose is solved from scratch.
+            if (state.poseSolver != null) {
+                state.poseSolver.reset();
+            }
             return;
         }
+        if (useRegion) {
+            region.toImage(corners);
+        }
+        region.found(corners);
 
-        PMatrix3D newPos = compute3DPos(corners, camera);
+        PMatrix3D newPos = compute3DPos(corners, camera, state);
 
         if (newPos == null) {
             return;
         }
 
-        PVector currentPos = new PVector(newPos.m03, newPos.m13, newPos.m23);
-        if (currentPos.z < 10f || currentPos.z > 10000) {
+        float[] measure = state.measure;
+        toArray(newPos, measure);
+        if (measure[11] < 10f || measure[11] > 10000) {
             return;
         }
 
-        float distance = currentPos.dist(lastPos.get(id));
-        System.out.println("Distance " + distance);
+        float distance = distanceToLast(state);
         if (distance > 1500) // 1 meter~?
         {
             return;
         }
 
+        // One image board.
+        float confidence = 1;
+        int nbMarkers = 1;
+
         // if the update is forced 
         if (mode == FORCE_UPDATE && currentTime < endTime) {
-            update(newPos, id);
+            update(state, timestamp, confidence, nbMarkers);
             return;
         }
 
         // the force and block updates are finished, revert back to normal
         if (mode == FORCE_UPDATE || mode == BLOCK_UPDATE && currentTime > endTime) {
-            updateStatus.set(id, NORMAL);
+            state.updateStatus = NORMAL;
         }
 
         // if it is a drawing mode
-        if (drawingMode.get(id)) {
+        if (state.drawingMode) {
 
-            if (distance > this.minDistanceDrawingMode.get(id)) {
-                update(newPos, id);
+            if (distance > state.minDistanceDrawingMode) {
+                update(state, timestamp, confidence, nbMarkers);
 
-                lastPos.set(id, currentPos);
-                updateStatus.set(id, FORCE_UPDATE);
-                nextTimeEvent.set(id, applet.millis() + MarkerBoard.updateTime);
+                state.lastPos.set(measure[3], measure[7], measure[11]);
+                state.updateStatus = FORCE_UPDATE;
+                state.nextTimeEvent = applet.millis() + MarkerBoard.updateTime;
 //                    System.out.println("Next Update for x seconds");
             }
 
         } else {
-            update(newPos, id);
+            update(state, timestamp, confidence, nbMarkers);
         }
 
     }
 
     public int MIN_ARTOOLKIT_MARKER_DETECTED = 2;
 
-    private void updateArtoolkitPosition(int id, int currentTime, int endTime, int mode, Camera camera, IplImage img) {
-        TrackerMultiMarker tracker = (TrackerMultiMarker) trackers.get(id);
+    private void updateArtoolkitPosition(TrackingState state, int currentTime, int endTime, int mode, Camera camera, IplImage img, long sequence, double timestamp) {
+        TrackerMultiMarker tracker = (TrackerMultiMarker) state.tracker;
 
-        // Find the markers
-        tracker.calc(img.imageData());
+        // Find the markers, once per frame for all the boards.
+        ARToolKitPlusDetector detector = camera.getARToolKitPlusDetector();
+        detector.detect(img, sequence);
 
-//        System.out.println("Calc... " + tracker.getNumDetectedMarkers());
-        if (tracker.getNumDetectedMarkers() < MIN_ARTOOLKIT_MARKER_DETECTED) {
+        // Pose from the markers of this board only.
+        int nbMarkers = detector.estimatePose(this, tracker, MIN_ARTOOLKIT_MARKER_DETECTED);
+        if (nbMarkers < 0) {
             return;
         }
 
         ARToolKitPlus.ARMultiMarkerInfoT multiMarkerConfig = tracker.getMultiMarkerConfig();
+        float confidence = Math.min(1f, (float) nbMarkers / multiMarkerConfig.marker_num());
+
+        // One copy of the 3x4 pose.
+        multiMarkerConfig.trans().get(state.measure);
+        updateMeasure(state, currentTime, endTime, mode, timestamp, confidence, nbMarkers);
+    }
 
-        PVector currentPos = new PVector((float) multiMarkerConfig.trans().get(3),
-                (float) multiMarkerConfig.trans().get(7),
-                (float) multiMarkerConfig.trans().get(11));
+    // Update with the measured pose of the state, 3x4 row-major.
+    private void updateMeasure(TrackingState state, int currentTime, int endTime, int mode,
+            double timestamp, float confidence, int nbMarkers) {
+        float[] measure = state.measure;
 
         // Cannot detect elements as close as closer than 10cm
-        if (currentPos.z < 10) {
+        if (measure[11] < 10) {
             return;
         }
 
         // if the update is forced 
         if (mode == FORCE_UPDATE && currentTime < endTime) {
-            update(multiMarkerConfig, id);
+            update(state, timestamp, confidence, nbMarkers);
             return;
         }
 
         // the force and block updates are finished, revert back to normal
         if (mode == FORCE_UPDATE || mode == BLOCK_UPDATE && currentTime > endTime) {
-            updateStatus.set(id, NORMAL);
+            state.updateStatus = NORMAL;
         }
 
         // if it is a drawing mode
-        if (drawingMode.get(id)) {
-            float distance = currentPos.dist(lastPos.get(id));
-
-            if (distance > this.minDistanceDrawingMode.get(id)) {
-                update(multiMarkerConfig, id);
-                lastPos.set(id, currentPos);
-                updateStatus.set(id, FORCE_UPDATE);
-                nextTimeEvent.set(id, applet.millis() + MarkerBoard.updateTime);
+        if (state.drawingMode) {
+            float distance = distanceToLast(state);
+
+            if (distance > state.minDistanceDrawingMode) {
+                update(state, timestamp, confidence, nbMarkers);
+                state.lastPos.set(measure[3], measure[7], measure[11]);
+                state.updateStatus = FORCE_UPDATE;
+                state.nextTimeEvent = applet.millis() + MarkerBoard.updateTime;
 //            } else {
 //                System.out.println("Not updating, because of drawing mode...");
             }
 
         } else {
-            update(multiMarkerConfig, id);
+            update(state, timestamp, confidence, nbMarkers);
         }
     }
 
-    private PMatrix3D compute3DPos(double[] corners, Camera camera) {
+    private PMatrix3D compute3DPos(double[] corners, Camera camera, TrackingState state) {
 
-        //  double[] srcCorners = {0, 0,  w, 0,  w, h,  0, h};
-        botLeft.set((float) corners[0], (float) corners[1]);
-        botRight.set((float) corners[2], (float) corners[3]);
-        topRight.set((float) corners[4], (float) corners[5]);
-        topLeft.set((float) corners[6], (float) corners[7]);
-
-        // check image bounds...
-        if (botLeft.x < 0 || botRight.x < 0 || topLeft.x < 0 || topRight.x < 0
-                || botLeft.x > camera.width() || botRight.x > camera.width() || topLeft.x > camera.width() || topRight.x > camera.width()
-                || botLeft.y < 0 || botRight.y < 0 || topLeft.y < 0 || topRight.y < 0
-                || botLeft.y > camera.height() || botRight.y > camera.height() || topLeft.y > camera.height() || topRight.y > camera.height()) {
-            return null;
+        // The detection ran on a raw frame.
+        if (camera.isUndistortingPoints()) {
+            corners = camera.getProjectiveDevice().undistortPoints(corners);
         }
 
-        imagePoints[0] = botLeft;
-        imagePoints[1] = botRight;
-        imagePoints[2] = topRight;
-        imagePoints[3] = topLeft;
+        //  double[] srcCorners = {0, 0,  w, 0,  w, h,  0, h};
+        // bottom left, bottom right, top right, top left.
+        PVector[] imagePoints = state.imagePoints;
+        for (int i = 0; i < 4; i++) {
+            float x = (float) corners[i * 2];
+            float y = (float) corners[i * 2 + 1];
+
+            // check image bounds...
+            if (x < 0 || y < 0 || x > camera.width() || y > camera.height()) {
+                return null;
+            }
+            imagePoints[i].set(x, y);
+        }
 
 //      objectPoints[0] = new PVector(0, 0, 0);
 //      objectPoints[1] = new PVector(width, 0, 0);
 //      objectPoints[2] = new PVector(width, height, 0);
 //      objectPoints[3] = new PVector(0, height, 0);
-        ProjectiveDeviceP pdp = camera.getProjectiveDevice();
-        return pdp.estimateOrientation(objectPoints, imagePoints);
-
-    }
-
-    private void update(ARToolKitPlus.ARMultiMarkerInfoT multiMarkerConfig, int id) {
-        PMatrix3D transfo = transfos.get(id);
-        OneEuroFilter filter[] = filters.get(id);
-
-        if (filter == null) {
-            transfo.m00 = multiMarkerConfig.trans().get(0);
-            transfo.m01 = multiMarkerConfig.trans().get(1);
-            transfo.m02 = multiMarkerConfig.trans().get(2);
-            transfo.m03 = multiMarkerConfig.trans().get(3);
-
-            transfo.m10 = multiMarkerConfig.trans().get(4);
-            transfo.m11 = multiMarkerConfig.trans().get(5);
-            transfo.m12 = multiMarkerConfig.trans().get(6);
-            transfo.m13 = multiMarkerConfig.trans().get(7);
-
-            transfo.m20 = multiMarkerConfig.trans().get(8);
-            transfo.m21 = multiMarkerConfig.trans().get(9);
-            transfo.m22 = multiMarkerConfig.trans().get(10);
-            transfo.m23 = multiMarkerConfig.trans().get(11);
-        } else {
-            try {
-                transfo.m00 = (float) filter[0].filter(multiMarkerConfig.trans().get(0));
-                transfo.m01 = (float) filter[1].filter(multiMarkerConfig.trans().get(1));
-                transfo.m02 = (float) filter[2].filter(multiMarkerConfig.trans().get(2));
-                transfo.m03 = (float) filter[3].filter(multiMarkerConfig.trans().get(3));
-
-                transfo.m10 = (float) filter[4].filter(multiMarkerConfig.trans().get(4));
-                transfo.m11 = (float) filter[5].filter(multiMarkerConfig.trans().get(5));
-                transfo.m12 = (float) filter[6].filter(multiMarkerConfig.trans().get(6));
-                transfo.m13 = (float) filter[7].filter(multiMarkerConfig.trans().get(7));
-
-                transfo.m20 = (float) filter[8].filter(multiMarkerConfig.trans().get(8));
-                transfo.m21 = (float) filter[9].filter(multiMarkerConfig.trans().get(9));
-                transfo.m22 = (float) filter[10].filter(multiMarkerConfig.trans().get(10));
-                transfo.m23 = (float) filter[11].filter(multiMarkerConfig.trans().get(11));
-            } catch (Exception e) {
-                System.out.println("Filtering error " + e);
-            }
+        if (state.poseSolver == null) {
+            state.poseSolver = new PoseSolver(camera.getProjectiveDevice());
         }
-//    Z negation ?
-//        tmp.scale(1, 1, -1);
-//        transfo[11] = -transfo[11];
-    }
-
-    private void update(PMatrix3D newPos, int id) {
-
-        PMatrix3D transfo = (PMatrix3D) transfos.get(id);
-        OneEuroFilter filter[] = filters.get(id);
-
-        if (filter == null) {
-            transfo.set(newPos);
-        } else {
-            try {
-                // Rotation
-                transfo.m00 = (float) filter[0].filter(newPos.m00);
-                transfo.m01 = (float) filter[1].filter(newPos.m01);
-                transfo.m02 = (float) filter[2].filter(newPos.m02);
-                transfo.m10 = (float) filter[3].filter(newPos.m10);
-                transfo.m11 = (float) filter[4].filter(newPos.m11);
-                transfo.m12 = (float) filter[5].filter(newPos.m12);
-                transfo.m20 = (float) filter[6].filter(newPos.m20);
-                transfo.m21 = (float) filter[7].filter(newPos.m21);
-                transfo.m22 = (float) filter[8].filter(newPos.m22);
-
-                // Translation
-                transfo.m03 = (float) filter[9].filter(newPos.m03);
-                transfo.m13 = (float) filter[10].filter(newPos.m13);
-                transfo.m23 = (float) filter[11].filter(newPos.m23);
-
-            } catch (Exception e) {
-                System.out.println("Filtering error " + e);
-            }
+        return state.poseSolver.solve(objectPoints, imagePoints, state.solvedPose);
+    }
+
+    // Distance from the measured position to the last drawing position.
+    private static float distanceToLast(TrackingState state) {
+        float dx = state.measure[3] - state.lastPos.x;
+        float dy = state.measure[7] - state.lastPos.y;
+        float dz = state.measure[11] - state.lastPos.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static void toArray(PMatrix3D m, float[] pose) {
+        pose[0] = m.m00;
+        pose[1] = m.m01;
+        pose[2] = m.m02;
+        pose[3] = m.m03;
+        pose[4] = m.m10;
+        pose[5] = m.m11;
+        pose[6] = m.m12;
+        pose[7] = m.m13;
+        pose[8] = m.m20;
+        pose[9] = m.m21;
+        pose[10] = m.m22;
+        pose[11] = m.m23;
+    }
+
+    // Filter the measured pose of the state and publish it. The measure is
+    // not modified.
+    private void update(TrackingState state, double timestamp, float confidence, int nbMarkers) {
+        float[] pose = state.measure;
+        PoseFilter filter = state.filter;
+        if (filter != null) {
+            filter.filter(pose, timestamp, state.filtered);
+            pose = state.filtered;
         }
+        state.transfo.set(pose[0], pose[1], pose[2], pose[3],
+                pose[4], pose[5], pose[6], pose[7],
+                pose[8], pose[9], pose[10], pose[11],
+                0, 0, 0, 1);
+        state.publish(timestamp, confidence, nbMarkers);
 //
 //        // If z negation hack required...
 //         PMatrix3D tmp = new PMatrix3D(transfo[0], transfo[1], transfo[2], transfo[3],
@@ -615,8 +669,33 @@ public class MarkerBoard {
 //            System.out.println("Filtering error " + e);
 //        }
 //    }
+
+    /**
+     * @param camera
+     * @return the last pose published for this camera, without locking.
+     */
+    public PoseSnapshot getPose(Camera camera) {
+        return getState(camera).pose.get();
+    }
+
+    /**
+     * A new copy of the current pose, not updated by the tracking. To avoid
+     * the allocation, use getTransfoMat(camera, out) or getPose(camera).
+     *
+     * @param camera
+     * @return a copy of the current pose.
+     */
     public PMatrix3D getTransfoMat(Camera camera) {
-        return transfos.get(cameras.indexOf(camera));
+        return getPose(camera).getMatrix();
+    }
+
+    /**
+     * @param camera
+     * @param out set to the current pose.
+     * @return out.
+     */
+    public PMatrix3D getTransfoMat(Camera camera, PMatrix3D out) {
+        return getPose(camera).getMatrix(out);
     }
 
     public PMatrix3D getTransfoRelativeTo(Camera camera, MarkerBoard board2) {
@@ -639,7 +718,7 @@ public class MarkerBoard {
     }
 
     private Object getTracking(Camera camera) {
-        return trackers.get(cameras.indexOf(camera));
+        return getState(camera).tracker;
     }
 
     public boolean useJavaCVFinder() {
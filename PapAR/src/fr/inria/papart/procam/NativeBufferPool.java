@@ -0,0 +1,203 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.bytedeco.javacpp.opencv_core.CvMat;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Pool of native OpenCV buffers, to avoid allocations in the per-frame code.
+ *
+ * Buffers are keyed by size and type. They are taken with get*() and given
+ * back with release(), or taken through a Lease which gives everything back
+ * when closed:
+ * <pre>
+ * try (NativeBufferPool.Lease lease = NativeBufferPool.lease()) {
+ *     CvMat points = lease.cvMat(2, 4, CV_32FC1);
+ *     ...
+ * }
+ * </pre>
+ * The content of a buffer is not cleared between uses.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class NativeBufferPool {
+
+    /**
+     * Number of free buffers kept for each size and type, the others are
+     * deallocated when released.
+     */
+    public static int MAX_FREE_BUFFERS = 8;
+
+    private static final int IPL_IMAGE = 0;
+    private static final int CV_MAT = 1;
+    private static final int MAT = 2;
+
+    private static final ConcurrentHashMap<Key, ConcurrentLinkedDeque<Object>> freeBuffers
+            = new ConcurrentHashMap<>();
+
+    private NativeBufferPool() {
+    }
+
+    public static IplImage getImage(int width, int height, int depth, int channels) {
+        IplImage image = (IplImage) poll(new Key(IPL_IMAGE, width, height, depth, channels));
+        if (image == null) {
+            image = IplImage.create(width, height, depth, channels);
+        }
+        return image;
+    }
+
+    public static CvMat getCvMat(int rows, int cols, int type) {
+        CvMat mat = (CvMat) poll(new Key(CV_MAT, cols, rows, type, 0));
+        if (mat == null) {
+            mat = CvMat.create(rows, cols, type);
+        }
+        return mat;
+    }
+
+    public static Mat getMat(int rows, int cols, int type) {
+        Mat mat = (Mat) poll(new Key(MAT, cols, rows, type, 0));
+        if (mat == null) {
+            mat = new Mat(rows, cols, type);
+        }
+        return mat;
+    }
+
+    public static void release(IplImage image) {
+        Key key = new Key(IPL_IMAGE, image.width(), image.height(), image.depth(), image.nChannels());
+        if (!offer(key, image)) {
+            image.release();
+        }
+    }
+
+    public static void release(CvMat mat) {
+        Key key = new Key(CV_MAT, mat.cols(), mat.rows(), mat.type(), 0);
+        if (!offer(key, mat)) {
+            mat.release();
+        }
+    }
+
+    public static void release(Mat mat) {
+        Key key = new Key(MAT, mat.cols(), mat.rows(), mat.type(), 0);
+        if (!offer(key, mat)) {
+            mat.release();
+        }
+    }
+
+    /**
+     * Start a scoped use of the pool.
+     *
+     * @return a lease to close when its buffers are no longer used.
+     */
+    public static Lease lease() {
+        return new Lease();
+    }
+
+    private static Object poll(Key key) {
+        ConcurrentLinkedDeque<Object> buffers = freeBuffers.get(key);
+        if (buffers == null) {
+            return null;
+        }
+        return buffers.pollFirst();
+    }
+
+    private static boolean offer(Key key, Object buffer) {
+        ConcurrentLinkedDeque<Object> buffers = freeBuffers.get(key);
+        if (buffers == null) {
+            freeBuffers.putIfAbsent(key, new ConcurrentLinkedDeque<>());
+            buffers = freeBuffers.get(key);
+        }
+        // The size is approximate under contention, a few extra buffers are fine.
+        if (buffers.size() >= MAX_FREE_BUFFERS) {
+            return false;
+        }
+        buffers.offerFirst(buffer);
+        return true;
+    }
+
+    /**
+     * Buffers taken from the pool, given back by close().
+     */
+    public static class Lease implements AutoCloseable {
+
+        private final ArrayList<Object> buffers = new ArrayList<>(4);
+
+        private Lease() {
+        }
+
+        public IplImage image(int width, int height, int depth, int channels) {
+            IplImage image = getImage(width, height, depth, channels);
+            buffers.add(image);
+            return image;
+        }
+
+        public CvMat cvMat(int rows, int cols, int type) {
+            CvMat mat = getCvMat(rows, cols, type);
+            buffers.add(mat);
+            return mat;
+        }
+
+        public Mat mat(int rows, int cols, int type) {
+            Mat mat = getMat(rows, cols, type);
+            buffers.add(mat);
+            return mat;
+        }
+
+        @Override
+        public void close() {
+            for (Object buffer : buffers) {
+                if (buffer instanceof IplImage) {
+                    release((IplImage) buffer);
+                } else if (buffer instanceof CvMat) {
+                    release((CvMat) buffer);
+                } else {
+                    release((Mat) buffer);
+                }
+            }
+            buffers.clear();
+        }
+    }
+
+    private static final class Key {
+
+        private final int kind, width, height, type, channels;
+
+        Key(int kind, int width, int height, int type, int channels) {
+            this.kind = kind;
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.channels = channels;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return kind == k.kind && width == k.width && height == k.height
+                    && type == k.type && channels == k.channels;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = kind;
+            h = 31 * h + width;
+            h = 31 * h + height;
+            h = 31 * h + type;
+            h = 31 * h + channels;
+            return h;
+        }
+    }
+}
@@ -145,7 +145,8 @@ public class OneEuroFilter {
 
     public double filter(double value, double timestamp) throws Exception {
         // update the sampling frequency based on timestamps
-        if (lasttime != UndefinedTime && timestamp != UndefinedTime) {
+        if (lasttime != UndefinedTime && timestamp != UndefinedTime
+                && timestamp > lasttime) {
             freq = 1.0 / (timestamp - lasttime);
         }
         
@@ -56,6 +56,19 @@ public class PaperScreen {
     private boolean isRegistered = false;
     protected boolean isWithoutCamera = false;
     protected boolean useManualLocation = false;
+    private final DrawHandler drawHandler = new DrawHandler(this);
+
+    // Retained mode: draw only when dirty, or at the maximum refresh rate.
+    private boolean useRetainedMode = false;
+    private volatile boolean isDirty = true;
+    private float maxRefreshRate = 0;
+    private int lastDrawTime = 0;
+
+    // Scratch of the location accessors, used from the drawing thread.
+    private final PMatrix3D locationTmp = new PMatrix3D();
+    private final PMatrix3D locationInvTmp = new PMatrix3D();
+    private final PMatrix3D otherLocationTmp = new PMatrix3D();
+    private final PVector cameraViewTmp = new PVector();
 
     /**
      * Create a new PaperScreen, a Papart object has to be created first.
@@ -209,10 +222,34 @@ public class PaperScreen {
     private void register() {
         this.isRegistered = true;
         parent.registerMethod("pre", this);
-        parent.registerMethod("draw", this);
+        parent.registerMethod("draw", drawHandler);
         display.registerAgain();
     }
 
+    /**
+     * Calls the draw method of a PaperScreen, only when its screen is
+     * visible and, in retained mode, when it needs to be drawn again.
+     */
+    public static class DrawHandler {
+
+        private final PaperScreen paperScreen;
+
+        DrawHandler(PaperScreen paperScreen) {
+            this.paperScreen = paperScreen;
+        }
+
+        public void draw() {
+            if (paperScreen.isInitialized
+                    && (!paperScreen.screen.isVisible() || !paperScreen.needsDraw())) {
+                return;
+            }
+            // Cleared before, a setDirty() during the draw is kept.
+            paperScreen.isDirty = false;
+            paperScreen.lastDrawTime = paperScreen.parent.millis();
+            paperScreen.draw();
+        }
+    }
+
     /**
      * This method must be overloaded in the child class. For example to load
      * images, 3D models etc...
@@ -228,12 +265,12 @@ public class PaperScreen {
         }
         assert (isInitialized);
 
-        if (this.isWithoutCamera || useManualLocation) {
-            return;
+        if (!this.isWithoutCamera && !useManualLocation) {
+            screen.updatePos(cameraTracking, markerBoard);
         }
 
-        screen.updatePos(cameraTracking, markerBoard);
-        checkCorners();
+        // The draw method is skipped when the display culls the screen.
+        screen.setVisible(display.isVisible(screen));
     }
 
     public void useManualLocation(boolean manual) {
@@ -241,73 +278,63 @@ public class PaperScreen {
     }
 
     /**
-     * Experimental
+     * Retained mode: the draw method is called only after a call to
+     * setDirty(), or at the maximum refresh rate. Otherwise the last texture
+     * of the screen is displayed again at the current location. It applies to
+     * the screens drawn with beginDraw2D(), the ones drawn with beginDraw3D()
+     * are drawn every frame.
+     *
+     * @param retained
      */
-    private void checkCorners() {
-        //        // check if drawing is required... 
-
-        if (!(display instanceof ARDisplay)) {
-            return;
-        }
+    public void useRetainedMode(boolean retained) {
+        this.useRetainedMode = retained;
+        this.isDirty = true;
+    }
 
-        ARDisplay arDisplay = (ARDisplay) display;
+    public boolean isRetainedMode() {
+        return useRetainedMode;
+    }
 
-        PVector[] corners = screen.getCornerPos();
+    /**
+     * Ask for a new drawing in retained mode. It can be called from any
+     * thread.
+     */
+    public void setDirty() {
+        this.isDirty = true;
+    }
 
-        if (arDisplay.getProjectiveDeviceP() == null) {
-            return;
-        }
+    public boolean isDirty() {
+        return isDirty;
+    }
 
-        int nbOut = 0;
-        if (arDisplay.hasExtrinsics()) {
-            PMatrix3D extr = arDisplay.getExtrinsics();
-            nbOut = checkCornerExtr(corners, arDisplay, extr);
-        } else {
-            nbOut = checkCorner(corners, arDisplay);
-        }
+    /**
+     * Draw at most rate times per second, and enable the retained mode.
+     *
+     * @param rate in frames per second, 0 to draw only when dirty.
+     */
+    public void setMaxRefreshRate(float rate) {
+        this.maxRefreshRate = rate;
+        useRetainedMode(true);
+    }
 
-        if (nbOut >= 3) {
-            screen.setDrawing(false);
-        } else {
-            screen.setDrawing(true);
-        }
+    public float getMaxRefreshRate() {
+        return maxRefreshRate;
     }
 
-    private int checkCornerExtr(PVector[] corners,
-            ARDisplay arDisplay, PMatrix3D extr) {
-        int nbOut = 0;
-        for (PVector corner : corners) {
-            // Corners are on the camera Point of view. 
-            PVector projC = new PVector();
-            extr.mult(corner, projC);
-            PVector screenCoord = arDisplay.getProjectiveDeviceP().worldToPixelReal(projC);
-            if (screenCoord.x < 0 || screenCoord.x > arDisplay.getWidth()
-                    || screenCoord.y < 0 || screenCoord.y > arDisplay.getHeight()) {
-                nbOut++;
-            }
+    private boolean needsDraw() {
+        // The 3D drawings are not kept from a frame to the next.
+        if (!useRetainedMode || isDirty || !screen.isDrawing()) {
+            return true;
         }
-        return nbOut;
-    }
-
-    private int checkCorner(PVector[] corners,
-            ARDisplay arDisplay) {
-        int nbOut = 0;
-        for (PVector corner : corners) {
-            // Corners are on the camera Point of view. 
-            PVector screenCoord = arDisplay.getProjectiveDeviceP().worldToPixelReal(corner);
-            if (screenCoord.x < 0 || screenCoord.x > arDisplay.getWidth()
-                    || screenCoord.y < 0 || screenCoord.y > arDisplay.getHeight()) {
-                nbOut++;
-            }
-        }
-        return nbOut;
+        return maxRefreshRate > 0
+                && parent.millis() - lastDrawTime >= 1000f / maxRefreshRate;
     }
 
     // TODO: check this !
     public PVector getScreenPos() {
 
         if (this.isWithoutCamera) {
-            return screen.getCornerPos()[0];
+            return screen.getCornerPos()[0].get();
         } else {
             return markerBoard.getBoardLocation(cameraTracking, (ARDisplay) display);
         }
@@ -384,9 +411,11 @@ public class PaperScreen {
 //            throw new RuntimeException("The given graphics context is not valid. Use the one given by beginDraw3D().");
 //        }
         // get the location of this board...
-        PMatrix3D loc = this.getLocation().get();
-        loc.invert();
-        loc.apply(paperScreen.getLocation());
+        PMatrix3D loc = screen.getLocationInv(locationInvTmp);
+        if (loc == null) {
+            return;
+        }
+        loc.apply(paperScreen.getLocation(otherLocationTmp));
 
         applyMatrix(loc);
     }
@@ -394,23 +423,35 @@ public class PaperScreen {
     public static final PVector INVALID_VECTOR = new PVector();
 
     public PVector getCoordFrom(PaperScreen paperScreen, PVector point) {
+        PVector out = getCoordFrom(paperScreen, point, new PVector());
+        return out == null ? INVALID_VECTOR : out;
+    }
 
-        // get a copy
-        PMatrix3D thisLocationInv = this.getLocation().get();
-        thisLocationInv.invert();
+    /**
+     * Coordinates of a point of another PaperScreen in this one, without
+     * allocation.
+     *
+     * @param paperScreen
+     * @param point in the paperScreen coordinates.
+     * @param out set to the point in this PaperScreen coordinates.
+     * @return out, or null if it is invalid.
+     */
+    public PVector getCoordFrom(PaperScreen paperScreen, PVector point, PVector out) {
 
-        PMatrix3D otherLocation = paperScreen.getLocation();
-        PVector cameraViewOfPoint = new PVector();
-        otherLocation.mult(point, cameraViewOfPoint);
+        PMatrix3D thisLocationInv = screen.getLocationInv(locationInvTmp);
+        if (thisLocationInv == null) {
+            return null;
+        }
 
-        PVector thisViewOfPoint = new PVector();
-        thisLocationInv.mult(cameraViewOfPoint, thisViewOfPoint);
+        PMatrix3D otherLocation = paperScreen.getLocation(otherLocationTmp);
+        otherLocation.mult(point, cameraViewTmp);
+        thisLocationInv.mult(cameraViewTmp, out);
 
-        if (Float.isNaN(thisViewOfPoint.x)) {
-            return INVALID_VECTOR;
+        if (Float.isNaN(out.x)) {
+            return null;
         }
 
-        return thisViewOfPoint;
+        return out;
     }
 
 //  public PVector getCoordOf(PaperScreen paperScreen, PVector point) {
@@ -464,14 +505,23 @@ public class PaperScreen {
     }
 
     public PVector getLocationVector() {
-        PMatrix3D p = screen.getLocation();
-        return new PVector(p.m03, p.m13, p.m23);
+        return getLocationVector(new PVector());
+    }
+
+    public PVector getLocationVector(PVector out) {
+        PMatrix3D p = screen.getLocation(locationTmp);
+        out.set(p.m03, p.m13, p.m23);
+        return out;
     }
 
     public PMatrix3D getLocation() {
         return this.screen.getLocation();
     }
 
+    public PMatrix3D getLocation(PMatrix3D out) {
+        return this.screen.getLocation(out);
+    }
+
     public void saveLocationTo(String filename) {
         HomographyCalibration.saveMatTo(
                 Papart.getPapart().getApplet(),
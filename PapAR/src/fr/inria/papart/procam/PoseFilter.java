@@ -0,0 +1,228 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+/**
+ * One Euro filter of a rigid pose. The translation is filtered per axis, the
+ * rotation as a quaternion: it is interpolated (slerp) toward the measure,
+ * with a cutoff driven by the angular speed. The filtered rotation stays
+ * orthonormal.
+ *
+ * Poses are 3x4 row-major arrays: rotation and translation, as the first
+ * three rows of a PMatrix3D. The time between two poses comes from their
+ * timestamps, the frequency is only used when they are not usable.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class PoseFilter {
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final double freq;
+    private double minCutoff;
+    private double beta = 0;
+    private double derivateCutoff = 1;
+
+    private boolean initialized = false;
+    private double lastTime;
+
+    // Filtered translation, last measure and speed.
+    private final double[] position = new double[3];
+    private final double[] lastPosition = new double[3];
+    private final double[] speed = new double[3];
+
+    // Filtered rotation (x, y, z, w), last measure and angular speed.
+    private final double[] rotation = new double[4];
+    private final double[] lastRotation = new double[4];
+    private final double[] measure = new double[4];
+    private double angularSpeed = 0;
+
+    /**
+     * @param freq expected update rate, in Hz.
+     * @param minCutoff cutoff frequency at low speed.
+     */
+    public PoseFilter(double freq, double minCutoff) {
+        if (freq <= 0 || minCutoff <= 0) {
+            throw new RuntimeException("PoseFilter: the frequency and cutoff must be > 0.");
+        }
+        this.freq = freq;
+        this.minCutoff = minCutoff;
+    }
+
+    public void setMinCutoff(double minCutoff) {
+        this.minCutoff = minCutoff;
+    }
+
+    /**
+     * @param beta increase of the cutoff with the speed.
+     */
+    public void setBeta(double beta) {
+        this.beta = beta;
+    }
+
+    public void setDerivateCutoff(double derivateCutoff) {
+        this.derivateCutoff = derivateCutoff;
+    }
+
+    /**
+     * The next pose is taken as is.
+     */
+    public void reset() {
+        initialized = false;
+    }
+
+    /**
+     * Filter a pose.
+     *
+     * @param pose 3x4 row-major pose.
+     * @param timestamp time of the pose, in seconds.
+     * @param out filtered pose, can be pose.
+     */
+    public void filter(float[] pose, double timestamp, float[] out) {
+        toQuaternion(pose, measure);
+
+        if (!initialized) {
+            for (int i = 0; i < 3; i++) {
+                position[i] = lastPosition[i] = pose[i * 4 + 3];
+            }
+            System.arraycopy(measure, 0, rotation, 0, 4);
+            System.arraycopy(measure, 0, lastRotation, 0, 4);
+            speed[0] = speed[1] = speed[2] = 0;
+            angularSpeed = 0;
+            lastTime = timestamp;
+            initialized = true;
+            write(out);
+            return;
+        }
+
+        double dt = timestamp - lastTime;
+        if (!(dt > 0)) {
+            dt = 1.0 / freq;
+        }
+        lastTime = timestamp;
+        double derivateAlpha = alpha(derivateCutoff, dt);
+
+        // Translation, one axis at a time.
+        for (int i = 0; i < 3; i++) {
+            double value = pose[i * 4 + 3];
+            double rawSpeed = (value - lastPosition[i]) / dt;
+            lastPosition[i] = value;
+            speed[i] += derivateAlpha * (rawSpeed - speed[i]);
+            double a = alpha(minCutoff + beta * Math.abs(speed[i]), dt);
+            position[i] += a * (value - position[i]);
+        }
+
+        // Rotation, along the shortest path.
+        double angle = 2 * Math.acos(Math.min(1, Math.abs(dot(lastRotation, measure))));
+        System.arraycopy(measure, 0, lastRotation, 0, 4);
+        angularSpeed += derivateAlpha * (angle / dt - angularSpeed);
+
+        double dot = dot(rotation, measure);
+        if (dot < 0) {
+            dot = -dot;
+            for (int i = 0; i < 4; i++) {
+                measure[i] = -measure[i];
+            }
+        }
+        double a = alpha(minCutoff + beta * angularSpeed, dt);
+        slerp(rotation, measure, dot, a);
+
+        write(out);
+    }
+
+    private static double dot(double[] q1, double[] q2) {
+        return q1[0] * q2[0] + q1[1] * q2[1] + q1[2] * q2[2] + q1[3] * q2[3];
+    }
+
+    private static double alpha(double cutoff, double dt) {
+        double tau = 1.0 / (TWO_PI * cutoff);
+        return 1.0 / (1.0 + tau / dt);
+    }
+
+    // q = slerp(q, target, t), dot is their (positive) dot product.
+    private static void slerp(double[] q, double[] target, double dot, double t) {
+        double s0, s1;
+        if (dot > 0.9995) {
+            // Close rotations: linear interpolation.
+            s0 = 1 - t;
+            s1 = t;
+        } else {
+            double theta = Math.acos(dot);
+            double sin = Math.sin(theta);
+            s0 = Math.sin((1 - t) * theta) / sin;
+            s1 = Math.sin(t * theta) / sin;
+        }
+        double norm = 0;
+        for (int i = 0; i < 4; i++) {
+            q[i] = s0 * q[i] + s1 * target[i];
+            norm += q[i] * q[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+    }
+
+    // Rotation part of a 3x4 pose to a unit quaternion (x, y, z, w).
+    private static void toQuaternion(float[] m, double[] q) {
+        double m00 = m[0], m01 = m[1], m02 = m[2];
+        double m10 = m[4], m11 = m[5], m12 = m[6];
+        double m20 = m[8], m21 = m[9], m22 = m[10];
+        double trace = m00 + m11 + m22;
+
+        if (trace > 0) {
+            double s = 0.5 / Math.sqrt(trace + 1);
+            q[3] = 0.25 / s;
+            q[0] = (m21 - m12) * s;
+            q[1] = (m02 - m20) * s;
+            q[2] = (m10 - m01) * s;
+        } else if (m00 > m11 && m00 > m22) {
+            double s = 2 * Math.sqrt(1 + m00 - m11 - m22);
+            q[3] = (m21 - m12) / s;
+            q[0] = 0.25 * s;
+            q[1] = (m01 + m10) / s;
+            q[2] = (m02 + m20) / s;
+        } else if (m11 > m22) {
+            double s = 2 * Math.sqrt(1 + m11 - m00 - m22);
+            q[3] = (m02 - m20) / s;
+            q[0] = (m01 + m10) / s;
+            q[1] = 0.25 * s;
+            q[2] = (m12 + m21) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + m22 - m00 - m11);
+            q[3] = (m10 - m01) / s;
+            q[0] = (m02 + m20) / s;
+            q[1] = (m12 + m21) / s;
+            q[2] = 0.25 * s;
+        }
+        double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+    }
+
+    private void write(float[] out) {
+        double x = rotation[0], y = rotation[1], z = rotation[2], w = rotation[3];
+
+        out[0] = (float) (1 - 2 * (y * y + z * z));
+        out[1] = (float) (2 * (x * y - z * w));
+        out[2] = (float) (2 * (x * z + y * w));
+        out[3] = (float) position[0];
+
+        out[4] = (float) (2 * (x * y + z * w));
+        out[5] = (float) (1 - 2 * (x * x + z * z));
+        out[6] = (float) (2 * (y * z - x * w));
+        out[7] = (float) position[1];
+
+        out[8] = (float) (2 * (x * z - y * w));
+        out[9] = (float) (2 * (y * z + x * w));
+        out[10] = (float) (1 - 2 * (x * x + y * y));
+        out[11] = (float) position[2];
+    }
+}
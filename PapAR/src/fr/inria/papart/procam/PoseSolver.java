@@ -0,0 +1,132 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.opencv_calib3d;
+import static org.bytedeco.javacpp.opencv_calib3d.Rodrigues;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.CV_32FC1;
+import static org.bytedeco.javacpp.opencv_core.CV_64FC1;
+import processing.core.PMatrix3D;
+import processing.core.PVector;
+
+/**
+ * Pose estimation context of one object seen by one camera. The matrices are
+ * allocated once, and each solve starts from the previous pose (extrinsic
+ * guess). After a failure, or a reset when the object is lost, the next solve
+ * starts from scratch.
+ *
+ * It is not thread safe, use one per object and camera.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class PoseSolver {
+
+    private final ProjectiveDeviceP pdp;
+
+    private int nbPoints = 0;
+    private Mat objectMat = null, imageMat = null;
+    private FloatIndexer objectIdx, imageIdx;
+
+    private final Mat rotation = new Mat(3, 1, CV_64FC1);
+    private final Mat translation = new Mat(3, 1, CV_64FC1);
+    private final Mat rotationMatrix = new Mat(3, 3, CV_64FC1);
+    private final DoubleIndexer rotationIdx = rotationMatrix.createIndexer();
+    private final DoubleIndexer translationIdx = translation.createIndexer();
+
+    private boolean hasGuess = false;
+
+    public PoseSolver(ProjectiveDeviceP pdp) {
+        this.pdp = pdp;
+    }
+
+    /**
+     * The object is lost, the next solve will not use the last pose.
+     */
+    public void reset() {
+        hasGuess = false;
+    }
+
+    public boolean isWarm() {
+        return hasGuess;
+    }
+
+    /**
+     * Estimate the pose of the object.
+     *
+     * @param objectPoints points of the object, in its own coordinates.
+     * @param imagePoints the same points in the image, undistorted.
+     * @param out set to the pose.
+     * @return out, or null when no pose is found.
+     */
+    public PMatrix3D solve(PVector[] objectPoints, PVector[] imagePoints, PMatrix3D out) {
+        assert (objectPoints.length == imagePoints.length);
+        checkPoints(objectPoints.length);
+
+        for (int i = 0; i < objectPoints.length; i++) {
+            objectIdx.put(i, 0, objectPoints[i].x);
+            objectIdx.put(i, 1, objectPoints[i].y);
+            objectIdx.put(i, 2, objectPoints[i].z);
+
+            imageIdx.put(i, 0, imagePoints[i].x);
+            imageIdx.put(i, 1, imagePoints[i].y);
+        }
+
+        boolean solved = solvePnP(hasGuess);
+        if (!solved && hasGuess) {
+            // The previous pose was too far, start again from scratch.
+            solved = solvePnP(false);
+        }
+        hasGuess = solved;
+        if (!solved) {
+            return null;
+        }
+
+        Rodrigues(rotation, rotationMatrix);
+        out.set((float) rotationIdx.get(0, 0), (float) rotationIdx.get(0, 1), (float) rotationIdx.get(0, 2), (float) translationIdx.get(0),
+                (float) rotationIdx.get(1, 0), (float) rotationIdx.get(1, 1), (float) rotationIdx.get(1, 2), (float) translationIdx.get(1),
+                (float) rotationIdx.get(2, 0), (float) rotationIdx.get(2, 1), (float) rotationIdx.get(2, 2), (float) translationIdx.get(2),
+                0, 0, 0, 1f);
+        return out;
+    }
+
+    private boolean solvePnP(boolean useExtrinsicGuess) {
+        boolean solved = opencv_calib3d.solvePnP(objectMat, imageMat,
+                pdp.getIntrinsicsMat(), pdp.getNoDistortionMat(),
+                rotation, translation,
+                useExtrinsicGuess, opencv_calib3d.SOLVEPNP_ITERATIVE);
+        // The object must be in front of the camera.
+        return solved && translationIdx.get(2) > 0;
+    }
+
+    private void checkPoints(int nb) {
+        if (nb == nbPoints) {
+            return;
+        }
+        release();
+        objectMat = new Mat(nb, 3, CV_32FC1);
+        imageMat = new Mat(nb, 2, CV_32FC1);
+        objectIdx = objectMat.createIndexer();
+        imageIdx = imageMat.createIndexer();
+        nbPoints = nb;
+        hasGuess = false;
+    }
+
+    private void release() {
+        if (objectMat != null) {
+            objectMat.release();
+            imageMat.release();
+            objectMat = null;
+            imageMat = null;
+        }
+        nbPoints = 0;
+    }
+}
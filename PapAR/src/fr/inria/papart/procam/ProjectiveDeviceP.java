@@ -9,6 +9,7 @@
 package fr.inria.papart.procam;
 
 import fr.inria.papart.calibration.ProjectiveDeviceCalibration;
+import fr.inria.papart.procam.camera.PixelConverter;
 import java.nio.FloatBuffer;
 import org.bytedeco.javacv.CameraDevice;
 import org.bytedeco.javacv.ProjectiveDevice;
@@ -20,6 +21,7 @@ import org.bytedeco.javacpp.indexer.DoubleIndexer;
 import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.javacpp.opencv_calib3d;
 import org.bytedeco.javacpp.opencv_core.CvMat;
+import org.bytedeco.javacpp.opencv_core.IplImage;
 
 import static org.bytedeco.javacpp.opencv_calib3d.*;
 import static org.bytedeco.javacpp.opencv_core.*;
@@ -49,9 +51,28 @@ public class ProjectiveDeviceP implements PConstants, HasExtrinsics {
     private float cx;
     private float cy;
     private Mat intrinsicsMat;
+    private final Mat noDistortionMat = new Mat();
     private boolean hasExtrinsics = false;
     private boolean handleDistorsion = false;
 
+    // Undistortion maps, built once per calibration.
+    private IplImage undistortMapX = null, undistortMapY = null;
+    private volatile boolean undistortMapsValid = false;
+    private boolean useFixedPointMaps = false;
+
+    // Lens distortion model sampled once, queried without JNI calls.
+    private DistortionGrid distortGrid = null, undistortGrid = null;
+
+    // One point mapped by the grids, the devices are shared by the threads.
+    private static final ThreadLocal<float[]> pointBuffer
+            = ThreadLocal.withInitial(() -> new float[2]);
+
+    /**
+     * Batches of at least this many points are projected in parallel.
+     */
+    public static int PARALLEL_MIN_POINTS = 4096;
+    private static final int POINTS_PER_BLOCK = 64;
+
     private ProjectiveDeviceP() {
     }
 
@@ -283,37 +304,183 @@ public class ProjectiveDeviceP implements PConstants, HasExtrinsics {
         int py = PApplet.constrain(PApplet.round((pt.y * invZ * fy) + cy), 0, h - 1);
 
         if (undistort) {
-            double[] out = device.distort(px, py);
-            return new PVector((float) out[0], (float) out[1]);
+            float[] out = pointBuffer.get();
+            distortGrid.map(px, py, out, 0);
+            return new PVector(out[0], out[1]);
         } else {
             return new PVector(px, py);
         }
     }
 
+    /**
+     * Project points to pixel coordinates, without rounding nor clamping.
+     *
+     * @param xyz x, y, z of each point.
+     * @param uv x, y of each pixel.
+     * @param count number of points.
+     * @param distort true to apply the lens distortions.
+     */
+    public void worldToPixels(float[] xyz, float[] uv, int count, boolean distort) {
+        worldToPixels(xyz, uv, count, distort, false);
+    }
+
+    /**
+     * Project points to pixel coordinates, without rounding nor clamping.
+     *
+     * @param xyz x, y, z of each point.
+     * @param uv x, y of each pixel.
+     * @param count number of points.
+     * @param distort true to apply the lens distortions.
+     * @param parallel true to split large batches between threads.
+     */
+    public void worldToPixels(float[] xyz, float[] uv, int count, boolean distort, boolean parallel) {
+        boolean useGrid = distort && hasDistortionGrids();
+        if (!parallel || count < PARALLEL_MIN_POINTS) {
+            worldToPixels(xyz, uv, 0, count, useGrid);
+            return;
+        }
+        int nbBlocks = (count + POINTS_PER_BLOCK - 1) / POINTS_PER_BLOCK;
+        PixelConverter.forEachStripe(nbBlocks, (startBlock, endBlock)
+                -> worldToPixels(xyz, uv, startBlock * POINTS_PER_BLOCK,
+                        Math.min(count, endBlock * POINTS_PER_BLOCK), useGrid));
+    }
+
+    private void worldToPixels(float[] xyz, float[] uv, int start, int end, boolean distort) {
+        for (int i = start; i < end; i++) {
+            float invZ = 1.0f / xyz[i * 3 + 2];
+            float u = xyz[i * 3] * invZ * fx + cx;
+            float v = xyz[i * 3 + 1] * invZ * fy + cy;
+            if (distort) {
+                distortGrid.map(u, v, uv, i * 2);
+            } else {
+                uv[i * 2] = u;
+                uv[i * 2 + 1] = v;
+            }
+        }
+    }
+
+    /**
+     * Back-project pixels with their depth.
+     *
+     * @param uvd x, y, depth of each pixel.
+     * @param xyz x, y, z of each point.
+     * @param count number of points.
+     * @param undistort true to remove the lens distortions of the pixels.
+     */
+    public void pixelsToWorld(float[] uvd, float[] xyz, int count, boolean undistort) {
+        pixelsToWorld(uvd, xyz, count, undistort, false);
+    }
+
+    /**
+     * Back-project pixels with their depth.
+     *
+     * @param uvd x, y, depth of each pixel.
+     * @param xyz x, y, z of each point, can be uvd.
+     * @param count number of points.
+     * @param undistort true to remove the lens distortions of the pixels.
+     * @param parallel true to split large batches between threads.
+     */
+    public void pixelsToWorld(float[] uvd, float[] xyz, int count, boolean undistort, boolean parallel) {
+        boolean useGrid = undistort && hasDistortionGrids();
+        if (!parallel || count < PARALLEL_MIN_POINTS) {
+            pixelsToWorld(uvd, xyz, 0, count, useGrid);
+            return;
+        }
+        int nbBlocks = (count + POINTS_PER_BLOCK - 1) / POINTS_PER_BLOCK;
+        PixelConverter.forEachStripe(nbBlocks, (startBlock, endBlock)
+                -> pixelsToWorld(uvd, xyz, startBlock * POINTS_PER_BLOCK,
+                        Math.min(count, endBlock * POINTS_PER_BLOCK), useGrid));
+    }
+
+    private void pixelsToWorld(float[] uvd, float[] xyz, int start, int end, boolean undistort) {
+        for (int i = start; i < end; i++) {
+            int k = i * 3;
+            float depth = uvd[k + 2];
+            if (undistort) {
+                // The undistorted pixel goes in the output, as x and y.
+                undistortGrid.map(uvd[k], uvd[k + 1], xyz, k);
+            } else {
+                xyz[k] = uvd[k];
+                xyz[k + 1] = uvd[k + 1];
+            }
+            xyz[k] = (xyz[k] - cx) * depth * ifx;
+            xyz[k + 1] = (xyz[k + 1] - cy) * depth * ify;
+            xyz[k + 2] = depth;
+        }
+    }
+
+    /**
+     * Remove the lens distortions of pixel coordinates.
+     *
+     * @param xy x and y coordinates of one or more points.
+     * @return the undistorted coordinates, or xy when there is no distortion
+     * parameter.
+     */
+    public double[] undistortPoints(double[] xy) {
+        if (!handleDistorsion || !hasDistortionGrids()) {
+            return xy;
+        }
+        double[] undistorted = new double[xy.length];
+        float[] out = pointBuffer.get();
+        for (int i = 0; i < xy.length; i += 2) {
+            undistortGrid.map((float) xy[i], (float) xy[i + 1], out, 0);
+            undistorted[i] = out[0];
+            undistorted[i + 1] = out[1];
+        }
+        return undistorted;
+    }
+
+    /**
+     * The grids of the lens distortion model are built at the calibration
+     * loading.
+     *
+     * @return false when there is no distortion model.
+     */
+    private boolean hasDistortionGrids() {
+        return distortGrid != null;
+    }
+
+    private void createDistortionGrids() {
+        if (device == null) {
+            return;
+        }
+        distortGrid = new DistortionGrid((x, y) -> device.distort(x, y), w, h);
+        undistortGrid = new DistortionGrid((x, y) -> device.undistort(x, y), w, h);
+    }
+
+    /**
+     * @return the sampled distortion, null without distortion model.
+     */
+    public DistortionGrid getDistortionGrid() {
+        return distortGrid;
+    }
+
+    /**
+     * @return the sampled undistortion, null without distortion model.
+     */
+    public DistortionGrid getUndistortionGrid() {
+        return undistortGrid;
+    }
+
     public PVector createRayFrom(PVector pixels) {
 
-        double[] out = device.undistort(pixels.x, pixels.y);
+        float[] out = pointBuffer.get();
+        undistortGrid.map(pixels.x, pixels.y, out, 0);
 
-        float norm = PApplet.sqrt(PApplet.pow((float) out[0], 2)
-                + PApplet.pow((float) out[1], 2)
+        float norm = PApplet.sqrt(PApplet.pow(out[0], 2)
+                + PApplet.pow(out[1], 2)
                 + 1.0f);
 
-        PVector v = new PVector((float) out[0] / norm,
-                (float) out[1] / norm,
+        PVector v = new PVector(out[0] / norm,
+                out[1] / norm,
                 1.f / norm);
         return v;
     }
 
-    public PMatrix3D estimateOrientation(PVector[] objectPoints,
-            PVector[] imagePoints) {
-
-        assert (objectPoints.length == imagePoints.length);
-
-        Mat op = new Mat(objectPoints.length, 3, CV_32FC1);
-        Mat ip = new Mat(imagePoints.length, 2, CV_32FC1);
-        Mat rotation = new Mat(3, 1, CV_64FC1);
-        Mat translation = new Mat(3, 1, CV_64FC1);
-
+    /**
+     * @return the intrinsics as a 3x3 float Mat, for OpenCV.
+     */
+    synchronized Mat getIntrinsicsMat() {
         if (intrinsicsMat == null) {
             intrinsicsMat = new Mat(3, 3, CV_32FC1);
             FloatIndexer intrinsicIdx = intrinsicsMat.createIndexer(true);
@@ -333,50 +500,62 @@ public class ProjectiveDeviceP implements PConstants, HasExtrinsics {
             intrinsicIdx.put(1, 2, intrinsics.m12);
             intrinsicIdx.put(2, 2, 1);
         }
+        return intrinsicsMat;
+    }
 
-        FloatIndexer opIdx = op.createIndexer();
-        FloatIndexer ipIdx = ip.createIndexer();
+    Mat getNoDistortionMat() {
+        return noDistortionMat;
+    }
 
-        // Fill the object and image matrices.
-        for (int i = 0; i < objectPoints.length; i++) {
-            opIdx.put(i, 0, objectPoints[i].x);
-            opIdx.put(i, 1, objectPoints[i].y);
-            opIdx.put(i, 2, objectPoints[i].z);
+    public PMatrix3D estimateOrientation(PVector[] objectPoints,
+            PVector[] imagePoints) {
 
-            ipIdx.put(i, 0, imagePoints[i].x);
-            ipIdx.put(i, 1, imagePoints[i].y);
-        }
+        assert (objectPoints.length == imagePoints.length);
+
+        Mat intrinsicsMat = getIntrinsicsMat();
+        PMatrix3D mat;
+        try (NativeBufferPool.Lease lease = NativeBufferPool.lease()) {
+            Mat op = lease.mat(objectPoints.length, 3, CV_32FC1);
+            Mat ip = lease.mat(imagePoints.length, 2, CV_32FC1);
+            Mat rotation = lease.mat(3, 1, CV_64FC1);
+            Mat translation = lease.mat(3, 1, CV_64FC1);
+            Mat rotMat = lease.mat(3, 3, CV_64FC1);
+
+            FloatIndexer opIdx = op.createIndexer();
+            FloatIndexer ipIdx = ip.createIndexer();
+
+            // Fill the object and image matrices.
+            for (int i = 0; i < objectPoints.length; i++) {
+                opIdx.put(i, 0, objectPoints[i].x);
+                opIdx.put(i, 1, objectPoints[i].y);
+                opIdx.put(i, 2, objectPoints[i].z);
+
+                ipIdx.put(i, 0, imagePoints[i].x);
+                ipIdx.put(i, 1, imagePoints[i].y);
+            }
 
-        //  cv::SOLVEPNP_ITERATIVE = 0, 
-        //  cv::SOLVEPNP_EPNP = 1, 
+            //  cv::SOLVEPNP_ITERATIVE = 0, 
+            //  cv::SOLVEPNP_EPNP = 1, 
 //  cv::SOLVEPNP_P3P = 2, 
 //  cv::SOLVEPNP_DLS = 3, 
 //  cv::SOLVEPNP_UPNP = 4 
 // Convert all to Mat, instead of CvMat
-        boolean solved = opencv_calib3d.solvePnP(op,
-                ip,
-                new Mat(intrinsicsMat), new Mat(),
-                rotation, translation,
-                false, opencv_calib3d.SOLVEPNP_ITERATIVE);
+            boolean solved = opencv_calib3d.solvePnP(op,
+                    ip,
+                    intrinsicsMat, noDistortionMat,
+                    rotation, translation,
+                    false, opencv_calib3d.SOLVEPNP_ITERATIVE);
 
-        Mat rotMat = new Mat(3, 3, CV_64FC1);
-        Rodrigues(rotation, rotMat);
+            Rodrigues(rotation, rotMat);
 
-        double[] rotationIndex = (double[]) rotMat.createIndexer(false).array();
-        double[] translationIndex = (double[]) translation.createIndexer(false).array();
-
-//        float RTMat[] = {
-//            (float) rotationIndex[0], (float) rotationIndex[1], (float) rotationIndex[2], (float) translationIndex[0],
-//            (float) rotationIndex[3], (float) rotationIndex[4], (float) rotationIndex[5], (float) translationIndex[1],
-//            (float) rotationIndex[6], (float) rotationIndex[7], (float) rotationIndex[8], (float) translationIndex[2],
-//            0, 0, 0, 1f};
-
-        PMatrix3D mat = new PMatrix3D((float) rotationIndex[0], (float) rotationIndex[1], (float) rotationIndex[2], (float) translationIndex[0],
-                (float) rotationIndex[3], (float) rotationIndex[4], (float) rotationIndex[5], (float) translationIndex[1],
-                (float) rotationIndex[6], (float) rotationIndex[7], (float) rotationIndex[8], (float) translationIndex[2],
-                0, 0, 0, 1f);
-//        mat.set(RTMat);
+            DoubleIndexer rotationIdx = rotMat.createIndexer();
+            DoubleIndexer translationIdx = translation.createIndexer();
 
+            mat = new PMatrix3D((float) rotationIdx.get(0, 0), (float) rotationIdx.get(0, 1), (float) rotationIdx.get(0, 2), (float) translationIdx.get(0, 0),
+                    (float) rotationIdx.get(1, 0), (float) rotationIdx.get(1, 1), (float) rotationIdx.get(1, 2), (float) translationIdx.get(1, 0),
+                    (float) rotationIdx.get(2, 0), (float) rotationIdx.get(2, 1), (float) rotationIdx.get(2, 2), (float) translationIdx.get(2, 0),
+                    0, 0, 0, 1f);
+        }
         return mat;
     }
 
@@ -542,6 +721,7 @@ public class ProjectiveDeviceP implements PConstants, HasExtrinsics {
                     0, 0, 0, 1);
         }
         p.device = dev;
+        p.createDistortionGrids();
     }
 
     private static void loadParameters(ProjectiveDeviceCalibration dev, ProjectiveDeviceP p) {
@@ -563,6 +743,83 @@ public class ProjectiveDeviceP implements PConstants, HasExtrinsics {
     public void setIntrinsics(PMatrix3D intrinsics) {
         this.intrinsics.set(intrinsics);
         updateFromIntrinsics();
+        this.intrinsicsMat = null;
+        this.undistortMapsValid = false;
+    }
+
+    /**
+     * Use 16 bits fixed-point undistortion maps, faster to apply but less
+     * precise than the floating-point ones.
+     *
+     * @param fixedPoint
+     */
+    public void setFixedPointMaps(boolean fixedPoint) {
+        if (fixedPoint != this.useFixedPointMaps) {
+            this.useFixedPointMaps = fixedPoint;
+            this.undistortMapsValid = false;
+        }
+    }
+
+    public boolean useFixedPointMaps() {
+        return this.useFixedPointMaps;
+    }
+
+    /**
+     * Remove the lens distortions of src. The undistortion maps are computed
+     * on the first call, and again when the intrinsics or the image size
+     * change. It must always be called from the same thread.
+     *
+     * @param src distorted image.
+     * @param dst undistorted image, same size and type as src.
+     */
+    public void undistort(IplImage src, IplImage dst) {
+        checkUndistortMaps(src.width(), src.height());
+        cvRemap(src, dst, undistortMapX, undistortMapY,
+                CV_INTER_LINEAR | CV_WARP_FILL_OUTLIERS, cvScalarAll(0));
+    }
+
+    private void checkUndistortMaps(int width, int height) {
+        if (undistortMapsValid
+                && undistortMapX.width() == width
+                && undistortMapX.height() == height) {
+            return;
+        }
+        if (device == null) {
+            throw new RuntimeException("ProjectiveDeviceP: no distortion "
+                    + "parameters to undistort with.");
+        }
+        releaseUndistortMaps();
+
+        CvMat cameraMatrix = CvMat.create(3, 3, CV_64FC1);
+        cameraMatrix.put(intrinsics.m00, intrinsics.m01, intrinsics.m02,
+                intrinsics.m10, intrinsics.m11, intrinsics.m12,
+                intrinsics.m20, intrinsics.m21, intrinsics.m22);
+
+        IplImage mapX = IplImage.create(width, height, IPL_DEPTH_32F, 1);
+        IplImage mapY = IplImage.create(width, height, IPL_DEPTH_32F, 1);
+        cvInitUndistortMap(cameraMatrix, device.distortionCoeffs, mapX, mapY);
+        cameraMatrix.release();
+
+        if (useFixedPointMaps) {
+            undistortMapX = IplImage.create(width, height, IPL_DEPTH_16S, 2);
+            undistortMapY = IplImage.create(width, height, IPL_DEPTH_16U, 1);
+            cvConvertMaps(mapX, mapY, undistortMapX, undistortMapY);
+            mapX.release();
+            mapY.release();
+        } else {
+            undistortMapX = mapX;
+            undistortMapY = mapY;
+        }
+        undistortMapsValid = true;
+    }
+
+    private void releaseUndistortMaps() {
+        if (undistortMapX != null) {
+            undistortMapX.release();
+            undistortMapY.release();
+            undistortMapX = null;
+            undistortMapY = null;
+        }
     }
 
     public void updateFromIntrinsics() {
@@ -11,6 +11,7 @@ package fr.inria.papart.procam;
 import fr.inria.papart.calibration.HomographyCalibration;
 import fr.inria.papart.calibration.HomographyCreator;
 import fr.inria.papart.procam.camera.Camera;
+import fr.inria.papart.tracking.PoseSnapshot;
 import static fr.inria.papart.procam.Utils.toVec;
 import processing.core.PApplet;
 import processing.core.PMatrix3D;
@@ -40,6 +41,22 @@ public class Screen {
 
     private boolean isFloatArrayUpdating;
 
+    // Incremented when the location changes, the geometry below follows it.
+    private long locationVersion = 0;
+    private long geometryVersion = -1;
+    private PoseSnapshot lastPose = null;
+    private final PMatrix3D trackedPose = new PMatrix3D();
+
+    // Overall location and its inverse, follow the location version.
+    private final PMatrix3D location = new PMatrix3D();
+    private final PMatrix3D locationInv = new PMatrix3D();
+    private long cachedLocationVersion = -1;
+    private boolean isInvertible = true;
+
+    // Drawing scratch of initDraw.
+    private final PMatrix3D drawPos = new PMatrix3D();
+    private final PVector drawUser = new PVector();
+
     ////////////
     private PVector size;
     private float scale;
@@ -47,12 +64,18 @@ public class Screen {
 
     private static final int nbPaperPosRender = 4;
     private final PVector[] paperPosCorners3D = new PVector[nbPaperPosRender];
+    private final PMatrix3D cornerMat = new PMatrix3D();
+    private static final PVector[] screenCorners = {
+        new PVector(0, 0), new PVector(1, 0),
+        new PVector(1, 1), new PVector(0, 1)};
 
     // TODO: update this again
     private HomographyCreator homography;
     protected HomographyCalibration worldToScreen;
     public float halfEyeDist = 10; // 2cm
     private boolean isDrawing = true;
+    private boolean isVisible = true;
+    private float boundsHeight = 0;
     private boolean isOpenGL = false;
 
     public Screen(PApplet parent, PVector size, float scale) {
@@ -63,6 +86,9 @@ public class Screen {
         this.size = size.get();
         this.scale = scale;
         this.parent = parent;
+        for (int i = 0; i < nbPaperPosRender; i++) {
+            paperPosCorners3D[i] = new PVector();
+        }
         initHomography();
     }
 
@@ -114,6 +140,33 @@ public class Screen {
         this.isDrawing = isDrawing;
     }
 
+    /**
+     * @return false when the display culled this screen for the current
+     * frame.
+     */
+    public boolean isVisible() {
+        return isVisible;
+    }
+
+    public void setVisible(boolean isVisible) {
+        this.isVisible = isVisible;
+    }
+
+    public float getBoundsHeight() {
+        return boundsHeight;
+    }
+
+    /**
+     * Height of the 3D content drawn above or below the screen, in
+     * millimeters. The bounding box used for culling is extended by this
+     * height on both sides. Default is 0, a flat screen.
+     *
+     * @param height
+     */
+    public void setBoundsHeight(float height) {
+        this.boundsHeight = height;
+    }
+
     public PVector getSize() {
         return size;
     }
@@ -134,6 +187,8 @@ public class Screen {
      */
     public void setMainLocation(PMatrix3D position) {
         transformation.set(position);
+        lastPose = null;
+        locationVersion++;
     }
 
     /**
@@ -147,6 +202,7 @@ public class Screen {
         } else {
             this.secondTransformation.set(tr);
         }
+        locationVersion++;
     }
 
     /**
@@ -171,6 +227,7 @@ public class Screen {
         }
         secondTransformation.reset();
         secondTransformation.translate(x, y, z);
+        locationVersion++;
     }
 
     /**
@@ -187,13 +244,58 @@ public class Screen {
      * @return
      */
     public PMatrix3D getLocation() {
-        if (secondTransformation == null) {
-            return transformation.get();
-        } else {
-            PMatrix3D combinedTransfos = transformation.get();
-            combinedTransfos.apply(secondTransformation);
-            return combinedTransfos;
+        return getLocation(new PMatrix3D());
+    }
+
+    /**
+     * Get the overall transform (after tracking and second transform) without
+     * allocation.
+     *
+     * @param out set to the location.
+     * @return out
+     */
+    public PMatrix3D getLocation(PMatrix3D out) {
+        updateLocation();
+        out.set(location);
+        return out;
+    }
+
+    /**
+     * Get the inverse of the overall transform, computed once per location.
+     *
+     * @param out set to the inverse location.
+     * @return out, or null if the location is not invertible.
+     */
+    public PMatrix3D getLocationInv(PMatrix3D out) {
+        updateLocation();
+        if (!isInvertible) {
+            return null;
+        }
+        out.set(locationInv);
+        return out;
+    }
+
+    private void updateLocation() {
+        if (cachedLocationVersion == locationVersion) {
+            return;
+        }
+        location.set(transformation);
+        if (secondTransformation != null) {
+            location.apply(secondTransformation);
         }
+        locationInv.set(location);
+        isInvertible = locationInv.invert();
+        cachedLocationVersion = locationVersion;
+    }
+
+    /**
+     * Incremented each time the location changes (tracking, main location or
+     * second transformation).
+     *
+     * @return
+     */
+    public long getLocationVersion() {
+        return locationVersion;
     }
 
     public float getScale() {
@@ -204,33 +306,68 @@ public class Screen {
      * update the internals of the screen to match the tracking.
      */
     public void updatePos(Camera camera, MarkerBoard board) {
-        transformation.set(board.getTransfoMat(camera));
+        // A new snapshot is published after each update, even when the pose
+        // does not change: the location changes only with the pose.
+        PoseSnapshot pose = board.getPose(camera);
+        if (pose == lastPose) {
+            return;
+        }
+        lastPose = pose;
+        pose.getMatrix(trackedPose);
+        if (!sameMatrix(trackedPose, transformation)) {
+            transformation.set(trackedPose);
+            locationVersion++;
+        }
+    }
+
+    private static boolean sameMatrix(PMatrix3D a, PMatrix3D b) {
+        return a.m00 == b.m00 && a.m01 == b.m01 && a.m02 == b.m02 && a.m03 == b.m03
+                && a.m10 == b.m10 && a.m11 == b.m11 && a.m12 == b.m12 && a.m13 == b.m13
+                && a.m20 == b.m20 && a.m21 == b.m21 && a.m22 == b.m22 && a.m23 == b.m23
+                && a.m30 == b.m30 && a.m31 == b.m31 && a.m32 == b.m32 && a.m33 == b.m33;
     }
 
+    /**
+     * Compute the corners, plane and homography of the screen from its
+     * current location.
+     */
     public void computeScreenPosTransform() {
 
         ///////////////////// PLANE COMPUTATION  //////////////////
-        PMatrix3D mat = this.getLocation();
+        PMatrix3D mat = getLocation(cornerMat);
 
-        paperPosCorners3D[0] = new PVector(mat.m03, mat.m13, mat.m23);
+        paperPosCorners3D[0].set(mat.m03, mat.m13, mat.m23);
         mat.translate(size.x, 0, 0);
-        paperPosCorners3D[1] = new PVector(mat.m03, mat.m13, mat.m23);
+        paperPosCorners3D[1].set(mat.m03, mat.m13, mat.m23);
         mat.translate(0, size.y, 0);
-        paperPosCorners3D[2] = new PVector(mat.m03, mat.m13, mat.m23);
+        paperPosCorners3D[2].set(mat.m03, mat.m13, mat.m23);
         mat.translate(-size.x, 0, 0);
-        paperPosCorners3D[3] = new PVector(mat.m03, mat.m13, mat.m23);
+        paperPosCorners3D[3].set(mat.m03, mat.m13, mat.m23);
 
         plane = new Plane(new Triangle3D(toVec(paperPosCorners3D[0]), toVec(paperPosCorners3D[1]), toVec(paperPosCorners3D[2])));
 
-        homography.addPoint(paperPosCorners3D[0], new PVector(0, 0));
-        homography.addPoint(paperPosCorners3D[1], new PVector(1, 0));
-        homography.addPoint(paperPosCorners3D[2], new PVector(1, 1));
-        homography.addPoint(paperPosCorners3D[3], new PVector(0, 1));
+        for (int i = 0; i < nbPaperPosRender; i++) {
+            homography.addPoint(paperPosCorners3D[i], screenCorners[i]);
+        }
         worldToScreen = homography.getHomography();
+        geometryVersion = locationVersion;
     }
 
+    // Recompute the geometry only when the location changed.
+    private void updateGeometry() {
+        if (geometryVersion != locationVersion) {
+            computeScreenPosTransform();
+        }
+    }
+
+    /**
+     * The corners are updated in place when the location changes, copy them
+     * to keep them.
+     *
+     * @return the four corners, in the tracking coordinates.
+     */
     public PVector[] getCornerPos() {
-        computeScreenPosTransform();
+        updateGeometry();
         return paperPosCorners3D;
     }
 
@@ -267,7 +404,7 @@ public class Screen {
         }
 
         // get the current transformation... 
-        PMatrix3D newPos = this.getLocation();
+        PMatrix3D newPos = this.getLocation(drawPos);
 
         newPos.translate(this.getDrawSizeX() / 2, this.getDrawSizeY() / 2);
         newPos.scale(-1, 1, -1);
@@ -275,7 +412,7 @@ public class Screen {
         newPos.invert();
         newPos.apply(initPosM);
 
-        PVector user = new PVector();
+        PVector user = drawUser;
 
         if (isAnaglyph && isLeft) {
             userPos.add(-halfEyeDist * 2, 0, 0);
@@ -325,10 +462,12 @@ public class Screen {
     }
 
     public Plane getPlane() {
+        updateGeometry();
         return plane;
     }
 
     public HomographyCalibration getWorldToScreen() {
+        updateGeometry();
         return worldToScreen;
     }
 
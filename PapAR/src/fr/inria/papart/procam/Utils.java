@@ -13,6 +13,9 @@ import fr.inria.papart.calibration.HomographyCreator;
 import fr.inria.papart.calibration.PlaneCalibration;
 import fr.inria.papart.calibration.PlaneCreator;
 import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import fr.inria.papart.procam.camera.DepthColorizer;
+import fr.inria.papart.procam.camera.DepthFrame;
+import fr.inria.papart.procam.camera.PixelConverter;
 import fr.inria.papart.procam.display.ARDisplay;
 import org.bytedeco.javacpp.opencv_imgproc.*;
 
@@ -207,51 +210,46 @@ public class Utils {
         return mat;
     }
 
+    /**
+     * Get an image of the size of Pout, with the type of imgIn. It comes from
+     * the NativeBufferPool, give it back with NativeBufferPool.release() when
+     * it is no longer used.
+     *
+     * @param imgIn
+     * @param Pout
+     * @return
+     */
     static public IplImage createImageFrom(IplImage imgIn, PImage Pout) {
-        // TODO: avoid this creation !!
-        CvSize outSize = new CvSize();
-        outSize.width(Pout.width);
-        outSize.height(Pout.height);
-        IplImage imgOut = cvCreateImage(outSize, // size
-                imgIn.depth(), // depth
-                imgIn.nChannels());
-//        imgIn.w
-        return imgOut;
+        return NativeBufferPool.getImage(Pout.width, Pout.height,
+                imgIn.depth(), imgIn.nChannels());
     }
 
+    /**
+     * Get an image of the size and type of imgIn, from the NativeBufferPool.
+     *
+     * @param imgIn
+     * @return
+     */
     static public IplImage createImageFrom(IplImage imgIn) {
-        // TODO: avoid this creation !!
-        CvSize outSize = new CvSize();
-        outSize.width(imgIn.width());
-        outSize.height(imgIn.height());
-        IplImage imgOut = cvCreateImage(outSize, // size
-                imgIn.depth(), // depth
-                imgIn.nChannels());
-//        imgIn.w
-        return imgOut;
+        return NativeBufferPool.getImage(imgIn.width(), imgIn.height(),
+                imgIn.depth(), imgIn.nChannels());
     }
 
+    /**
+     * Get an image of the size of in, with 3 channels for RGB and 4 for ARGB,
+     * from the NativeBufferPool.
+     *
+     * @param in
+     * @return null for other formats.
+     */
     static public IplImage createImageFrom(PImage in) {
-        // TODO: avoid this creation !!
-        CvSize outSize = new CvSize();
-        outSize.width(in.width);
-        outSize.height(in.height);
-
-        IplImage imgOut = null;
         if (in.format == RGB) {
-            imgOut = cvCreateImage(outSize, // size
-                    IPL_DEPTH_8U, // depth
-                    3);
+            return NativeBufferPool.getImage(in.width, in.height, IPL_DEPTH_8U, 3);
         }
-
         if (in.format == ARGB) {
-            imgOut = cvCreateImage(outSize, // size
-                    IPL_DEPTH_8U, // depth
-                    4);
+            return NativeBufferPool.getImage(in.width, in.height, IPL_DEPTH_8U, 4);
         }
-
-//        imgIn.w
-        return imgOut;
+        return null;
     }
 
     static public void createAnaglyph(PImage imgL, PImage imgR, PImage imgOut) {
@@ -275,28 +273,48 @@ public class Utils {
 
     }
 
+    private static final ThreadLocal<double[]> homographyBuffer
+            = ThreadLocal.withInitial(() -> new double[9]);
+
     static public CvMat createHomography(PVector[] in, PVector[] out) {
+        CvMat homography = CvMat.create(3, 3, CV_32FC1);
+        createHomography(in, out, homography);
+        return homography;
+    }
 
-        CvMat srcPoints;
-        CvMat dstPoints;
-        int nbPoints = in.length;
-        CvMat homography;
-
-        // TODO: no create map
-        srcPoints = cvCreateMat(2, in.length, CV_32FC1);
-        dstPoints = cvCreateMat(2, in.length, CV_32FC1);
-        homography = cvCreateMat(3, 3, CV_32FC1);
-
-        for (int i = 0; i < in.length; i++) {
-            srcPoints.put(i, in[i].x);
-            srcPoints.put(i + nbPoints, in[i].y);
-            dstPoints.put(i, out[i].x);
-            dstPoints.put(i + nbPoints, out[i].y);
+    /**
+     * Compute the homography from in to out, in Java and without allocation
+     * for four points.
+     *
+     * @param in
+     * @param out
+     * @param homography 3x3 CV_32FC1 matrix, filled with the result.
+     */
+    static public void createHomography(PVector[] in, PVector[] out, CvMat homography) {
+        double[] h = homographyBuffer.get();
+        if (HomographySolver.solve(in, out, false, h)) {
+            for (int i = 0; i < 9; i++) {
+                homography.put(i, h[i]);
+            }
+            return;
         }
 
-        cvFindHomography(srcPoints, dstPoints, homography);
+        // Degenerate points, let OpenCV decide.
+        int nbPoints = in.length;
+        try (NativeBufferPool.Lease lease = NativeBufferPool.lease()) {
+            CvMat srcPoints = lease.cvMat(2, nbPoints, CV_32FC1);
+            CvMat dstPoints = lease.cvMat(2, nbPoints, CV_32FC1);
+
+            for (int i = 0; i < nbPoints; i++) {
+                srcPoints.put(i, in[i].x);
+                srcPoints.put(i + nbPoints, in[i].y);
+                dstPoints.put(i, out[i].x);
+                dstPoints.put(i + nbPoints, out[i].y);
+            }
+
+            cvFindHomography(srcPoints, dstPoints, homography);
 //       It is better to use : GetPerspectiveTransform
-        return homography;
+        }
     }
 
     // TODO: finish this, find another source...
@@ -340,29 +358,14 @@ public class Utils {
 
     static public void remapImage(PVector[] in, PVector[] out, IplImage imgIn, IplImage imgTmp, PImage Pout) {
 
-        CvMat srcPoints;
-        CvMat dstPoints;
-        int nbPoints = in.length;
-        CvMat homography;
-
-        // TODO: no create map
-        srcPoints = cvCreateMat(2, in.length, CV_32FC1);
-        dstPoints = cvCreateMat(2, in.length, CV_32FC1);
-        homography = cvCreateMat(3, 3, CV_32FC1);
-
-        for (int i = 0; i < in.length; i++) {
-            srcPoints.put(i, in[i].x);
-            srcPoints.put(i + nbPoints, in[i].y);
-            dstPoints.put(i, out[i].x);
-            dstPoints.put(i + nbPoints, out[i].y);
-        }
-
-        cvFindHomography(srcPoints, dstPoints, homography);
-//       It is better to use : GetPerspectiveTransform
+        try (NativeBufferPool.Lease lease = NativeBufferPool.lease()) {
+            CvMat homography = lease.cvMat(3, 3, CV_32FC1);
+            createHomography(in, out, homography);
 
-        opencv_imgproc.cvWarpPerspective(imgIn, imgTmp, homography);
-        // opencv_imgproc.CV_INTER_LINEAR ); //                opencv_imgproc.CV_WARP_FILL_OUTLIERS);
+            opencv_imgproc.cvWarpPerspective(imgIn, imgTmp, homography);
+            // opencv_imgproc.CV_INTER_LINEAR ); //                opencv_imgproc.CV_WARP_FILL_OUTLIERS);
 //                getFillColor());
+        }
         IplImageToPImage(imgTmp, false, Pout);
 
     }
@@ -412,84 +415,47 @@ public class Utils {
     }
 
     static public void IplImageToPImage(IplImage img, PixelFormat format, PImage ret) {
-        if (format == PixelFormat.RGB) {
-            IplImageToPImage(img, true, ret);
-        }
-        if (format == PixelFormat.BGR) {
-            IplImageToPImage(img, false, ret);
-        }
+        IplImageToPImage(img, format, false, ret);
+    }
+
+    static private void IplImageToPImage(IplImage img, PixelFormat format, boolean opaque, PImage ret) {
+        assert (img.width() == ret.width);
+        assert (img.height() == ret.height);
+        ret.loadPixels();
+        PixelConverter.toARGB(img, format, ret.pixels, opaque);
+        ret.updatePixels();
     }
 
     static public void IplImageToPImage(IplImage img, PImage ret) {
         IplImageToPImage(img, true, ret);
     }
-    static int conversionCount = 0;
 
+    /**
+     * @param img 1, 3 or 4 channels image. The pixels are opaque, the fourth
+     * channel is ignored.
+     * @param RGB for 3 channels images, RGB or BGR order.
+     * @param ret
+     */
     static public void IplImageToPImage(IplImage img, boolean RGB, PImage ret) {
-
-//        conversionCount++;
-//        if (conversionCount % 600 == 0) {
-//            System.gc();
-//        }
-        assert (img.width() == ret.width);
-        assert (img.height() == ret.height);
-        //= new BufferedImage();
-
-        if (img.nChannels() == 3) {
-            ByteBuffer buff = img.getByteBuffer();
-
-            //  PImage ret = new PImage(img.width(), img.height(), PApplet.RGB);
-            ret.loadPixels();
-            if (RGB) {
-                for (int i = 0; i < img.width() * img.height(); i++) {
-                    int offset = i * 3;
-                    ret.pixels[i] = (buff.get(offset) & 0xFF) << 16
-                            | (buff.get(offset + 1) & 0xFF) << 8
-                            | (buff.get(offset + 2) & 0xFF);
-
-                }
-            } else {
-                for (int i = 0; i < img.width() * img.height(); i++) {
-                    int offset = i * 3;
-                    ret.pixels[i] = (buff.get(offset + 2) & 0xFF) << 16
-                            | (buff.get(offset + 1) & 0xFF) << 8
-                            | (buff.get(offset) & 0xFF);
-
-                }
-            }
-        }
-
-        if (img.nChannels() == 4) {
-            ByteBuffer buff = img.getByteBuffer();
-            //  PImage ret = new PImage(img.width(), img.height(), PApplet.RGB);
-            ret.loadPixels();
-            for (int i = 0; i < img.width() * img.height(); i++) {
-                int offset = i * 4;
-//            ret.pixels[i] = applet.color(buff.get(offset + 0) & 0xff, buff.get(offset + 1) & 0xFF, buff.get(offset + 2) & 0xff);
-
-                ret.pixels[i] = (0xFF) << 24
-                        | (buff.get(offset) & 0xFF) << 16
-                        | (buff.get(offset + 1) & 0xFF) << 8
-                        | (buff.get(offset + 2) & 0xFF);
-
-            }
+        PixelFormat format;
+        switch (img.nChannels()) {
+            case 3:
+                format = RGB ? PixelFormat.RGB : PixelFormat.BGR;
+                break;
+            case 4:
+                format = PixelFormat.RGBA;
+                break;
+            default:
+                format = PixelFormat.GRAY;
         }
-
-        if (img.nChannels() == 1) {
-            // TODO: no more allocations. 
-            ByteBuffer buff = img.getByteBuffer();
-            byte[] arr = new byte[img.width() * img.height()];
-            buff.get(arr);
-
-            for (int i = 0; i < img.width() * img.height(); i++) {
-                int d = (arr[i] & 0xFF);
-                ret.pixels[i] = d;
-            }
-
-        }
-        ret.updatePixels();
+        IplImageToPImage(img, format, true, ret);
     }
 
+    /**
+     * @deprecated use PixelConverter.toRGBA(), it handles the widthStep and
+     * all the pixel formats.
+     */
+    @Deprecated
     static public void byteBufferBRGtoARGB(ByteBuffer bgr, ByteBuffer argb) {
         byte[] tmpArr = new byte[3];
 
@@ -504,80 +470,41 @@ public class Utils {
         argb.rewind();
     }
 
-    // TODO
-    private static byte[] kinectByteArray = null;
-
+    /**
+     * Kinect images to PImage. Depth images are copied as raw values, use a
+     * DepthColorizer to view them.
+     *
+     * @param img 3 channels color or 16 bits depth image.
+     * @param RGB for color images, RGB or BGR order.
+     * @param ret
+     */
     static public void IplImageToPImageKinect(IplImage img, boolean RGB, PImage ret) {
-
-//        conversionCount++;
-//        if (conversionCount % 30 == 0) {
-//            System.gc();
-//        }
         assert (img.width() == ret.width);
         assert (img.height() == ret.height);
-//        BufferedImage bimg = new BufferedImage();
 
         if (img.nChannels() == 3) {
+            IplImageToPImage(img, RGB, ret);
+            return;
+        }
 
-            System.out.println("3 channels");
-            ByteBuffer buff = img.getByteBuffer();
-
-            //  PImage ret = new PImage(img.width(), img.height(), PApplet.RGB);
-            ret.loadPixels();
-            if (RGB) {
-                for (int i = 0; i < img.width() * img.height(); i++) {
-                    int offset = i * 3;
-//            ret.pixels[i] = applet.color(buff.get(offset + 0) & 0xff, buff.get(offset + 1) & 0xFF, buff.get(offset + 2) & 0xff);
-
-                    ret.pixels[i] = (buff.get(offset) & 0xFF) << 16
-                            | (buff.get(offset + 1) & 0xFF) << 8
-                            | (buff.get(offset + 2) & 0xFF);
-
-                }
-            } else {
-                for (int i = 0; i < img.width() * img.height(); i++) {
-                    int offset = i * 3;
-//            ret.pixels[i] = applet.color(buff.get(offset + 0) & 0xff, buff.get(offset + 1) & 0xFF, buff.get(offset + 2) & 0xff);
-
-                    ret.pixels[i] = (buff.get(offset + 2) & 0xFF) << 16
-                            | (buff.get(offset + 1) & 0xFF) << 8
-                            | (buff.get(offset) & 0xFF);
-
-                }
-
-            }
-        } else {
-            if (img.nChannels() == 1) {
-
-                ////////////// Kinect Depth //////////////
-                ByteBuffer buff = img.getByteBuffer();
-
-                if (Utils.kinectByteArray == null) {
-                    kinectByteArray = new byte[2 * img.width() * img.height()];
-                }
-//                else {
-//                    Arrays.fill(kinectByteArray, (byte) 0);
-//                }
-
-                buff.get(kinectByteArray);
+        ret.loadPixels();
+        rawDepth.toARGB(depthFrames.get().set(img), ret.pixels);
+        ret.updatePixels();
+    }
 
-                for (int i = 0; i < img.width() * img.height() * 2; i += 2) {
-                    int d = (kinectByteArray[i] & 0xFF) << 8
-                            | (kinectByteArray[i + 1] & 0xFF);
+    static private final DepthColorizer rawDepth = new DepthColorizer();
 
-                    ret.pixels[i / 2] = d;
-//                    ret.pixels[i] =
-//                            (buff.get(i) & 0xFF) << 16
-//                            | (buff.get(i) & 0xFF) << 8
-//                            | (buff.get(i) & 0xFF);
-                }
+    static {
+        rawDepth.setLookupTable(DepthColorizer.createRawTable());
+    }
 
-            }
+    // Depth frame of each converting thread.
+    static private final ThreadLocal<DepthFrame> depthFrames = new ThreadLocal<DepthFrame>() {
+        @Override
+        protected DepthFrame initialValue() {
+            return new DepthFrame();
         }
-
-//        buff = null;
-        ret.updatePixels();
-    }
+    };
 
     /**
      *
@@ -587,29 +514,7 @@ public class Utils {
 //        dst.copyFrom((BufferedImage) src.getImage());
 //    }
     static public void PImageToIplImage2(IplImage img, boolean RGB, PImage ret) {
-
-        ByteBuffer buff = img.getByteBuffer();
-
-        ret.loadPixels();
-        if (RGB) {
-            for (int i = 0; i < img.width() * img.height(); i++) {
-                int offset = i * 3;
-                ret.pixels[i] = (buff.get(offset) & 0xFF) << 16
-                        | (buff.get(offset + 1) & 0xFF) << 8
-                        | (buff.get(offset + 2) & 0xFF);
-
-            }
-        } else {
-            for (int i = 0; i < img.width() * img.height(); i++) {
-                int offset = i * 3;
-                ret.pixels[i] = (buff.get(offset + 2) & 0xFF) << 16
-                        | (buff.get(offset + 1) & 0xFF) << 8
-                        | (buff.get(offset) & 0xFF);
-
-            }
-
-        }
-        ret.updatePixels();
+        IplImageToPImage(img, RGB ? PixelFormat.RGB : PixelFormat.BGR, ret);
     }
     //                                   int int  12 double  4 double
     static final int SIZE_OF_PARAM_SET = 4 + 4 + (3 * 4 * 8) + (4 * 8);
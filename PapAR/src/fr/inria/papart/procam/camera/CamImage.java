@@ -1,4 +1,4 @@
-/* 
+/*
  *  Copyright Inria and Bordeaux University.
  *  Author Jeremy Laviole. jeremy.laviole@inria.fr
  *  PapAR project is the open-source version of the
@@ -8,21 +8,49 @@
  */
 package fr.inria.papart.procam.camera;
 
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
 import java.awt.Image;
 import java.nio.ByteBuffer;
 import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_16U;
 import processing.core.PApplet;
 import processing.core.PImage;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.Texture;
 
 /**
+ * Camera image living in a texture. The IplImage buffer is uploaded as it
+ * is, in its native layout (BGR, RGB, RGBA, ARGB or gray), and the channels
+ * are reordered by the texture swizzle (OpenGL 3.3 or ARB_texture_swizzle):
+ * the texture is drawn correctly by image(), without any shader. 16 bits
+ * depth images are uploaded as they are too, the raw value is shown in gray
+ * levels (65535 is white).
  *
  * @author jiii
  */
 public abstract class CamImage extends PImage {
 
+    // Core profile constants, not all in PGL.
+    static final int GL_RED = 0x1903;
+    static final int GL_GREEN = 0x1904;
+    static final int GL_BLUE = 0x1905;
+    static final int GL_ALPHA = 0x1906;
+    static final int GL_ONE = 1;
+    static final int GL_R8 = 0x8229;
+    static final int GL_R16 = 0x822A;
+    static final int GL_RGBA8 = 0x8058;
+    static final int GL_UNSIGNED_SHORT = 0x1403;
+    static final int GL_TEXTURE_SWIZZLE_R = 0x8E42;
+
     protected Object bufferSink = null;
     protected ByteBuffer natBuffer = null;
 
+    protected PixelFormat sourceFormat = PixelFormat.BGR;
+    private int textureInternalFormat = -1;
+    private PixelFormat swizzleFormat = null;
+    private int swizzleChannels = -1;
+
     protected CamImage(PApplet parent, int width, int height, int format) {
         super(width, height, format);
         camInit(parent);
@@ -37,6 +65,113 @@ public abstract class CamImage extends PImage {
 
     public abstract void update(IplImage iplImage);
 
+    /**
+     * Set the pixel format of the images given to update(), BGR by default.
+     *
+     * @param format
+     */
+    public void setSourceFormat(PixelFormat format) {
+        this.sourceFormat = format;
+    }
+
+    public PixelFormat getSourceFormat() {
+        return sourceFormat;
+    }
+
+    /**
+     * Copy the image buffer to the texture, without conversion. Must be
+     * called from the rendering thread.
+     *
+     * @param iplImage
+     */
+    protected void upload(IplImage iplImage) {
+        PGraphicsOpenGL pg = (PGraphicsOpenGL) parent.g;
+        Texture tex = pg.getTexture(this);
+        PGL pgl = pg.pgl;
+
+        tex.bind();
+        if (iplImage.depth() == IPL_DEPTH_16U) {
+            uploadDepth(pgl, tex, iplImage);
+        } else {
+            uploadNative(pgl, tex, iplImage);
+        }
+        if (tex.usingMipmaps()) {
+            pgl.generateMipmap(tex.glTarget);
+        }
+        tex.unbind();
+    }
+
+    private void uploadNative(PGL pgl, Texture tex, IplImage iplImage) {
+        int nChannels = iplImage.nChannels();
+        int glFormat;
+        switch (nChannels) {
+            case 1:
+                glFormat = GL_RED;
+                break;
+            case 3:
+                glFormat = PGL.RGB;
+                break;
+            default:
+                glFormat = PGL.RGBA;
+        }
+        setStorage(pgl, tex, nChannels == 1 ? GL_R8 : GL_RGBA8);
+        setSwizzle(pgl, tex, sourceFormat, nChannels);
+
+        // IplImage rows are aligned on 4 bytes.
+        pgl.pixelStorei(PGL.UNPACK_ALIGNMENT, 4);
+        pgl.texSubImage2D(tex.glTarget, 0, 0, 0, iplImage.width(), iplImage.height(),
+                glFormat, PGL.UNSIGNED_BYTE, iplImage.getByteBuffer());
+    }
+
+    private void uploadDepth(PGL pgl, Texture tex, IplImage iplImage) {
+        setStorage(pgl, tex, GL_R16);
+        setSwizzle(pgl, tex, PixelFormat.GRAY, 1);
+
+        // Native byte order, rows aligned on 4 bytes.
+        pgl.pixelStorei(PGL.UNPACK_ALIGNMENT, 4);
+        pgl.texSubImage2D(tex.glTarget, 0, 0, 0, iplImage.width(), iplImage.height(),
+                GL_RED, GL_UNSIGNED_SHORT, iplImage.getByteBuffer());
+    }
+
+    private void setStorage(PGL pgl, Texture tex, int internalFormat) {
+        if (internalFormat == textureInternalFormat) {
+            return;
+        }
+        boolean red = internalFormat == GL_R8 || internalFormat == GL_R16;
+        pgl.texImage2D(tex.glTarget, 0, internalFormat,
+                tex.glWidth, tex.glHeight, 0,
+                red ? GL_RED : PGL.RGBA,
+                internalFormat == GL_R16 ? GL_UNSIGNED_SHORT : PGL.UNSIGNED_BYTE, null);
+        textureInternalFormat = internalFormat;
+    }
+
+    // Texture channel read for each output channel (red, green, blue, alpha).
+    private void setSwizzle(PGL pgl, Texture tex, PixelFormat format, int nChannels) {
+        if (format == swizzleFormat && nChannels == swizzleChannels) {
+            return;
+        }
+        int[] swizzle;
+        if (nChannels == 1) {
+            swizzle = new int[]{GL_RED, GL_RED, GL_RED, GL_ONE};
+        } else if (nChannels == 3) {
+            swizzle = format == PixelFormat.BGR
+                    ? new int[]{GL_BLUE, GL_GREEN, GL_RED, GL_ONE}
+                    : new int[]{GL_RED, GL_GREEN, GL_BLUE, GL_ONE};
+        } else if (format == PixelFormat.ARGB) {
+            swizzle = new int[]{GL_GREEN, GL_BLUE, GL_ALPHA, GL_RED};
+        } else if (format == PixelFormat.BGR) {
+            // BGRA
+            swizzle = new int[]{GL_BLUE, GL_GREEN, GL_RED, GL_ALPHA};
+        } else {
+            swizzle = new int[]{GL_RED, GL_GREEN, GL_BLUE, GL_ALPHA};
+        }
+        for (int i = 0; i < 4; i++) {
+            pgl.texParameteri(tex.glTarget, GL_TEXTURE_SWIZZLE_R + i, swizzle[i]);
+        }
+        swizzleFormat = format;
+        swizzleChannels = nChannels;
+    }
+
     public synchronized void disposeBuffer(Object buf) {
 
     }
@@ -8,9 +8,7 @@
  */
 package fr.inria.papart.procam.camera;
 
-import fr.inria.papart.procam.Utils;
 import java.awt.Image;
-import java.nio.ByteBuffer;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import processing.core.PApplet;
 import static processing.core.PConstants.ARGB;
@@ -23,8 +21,6 @@ import processing.opengl.Texture;
  */
 public class CamImageColor extends CamImage {
 
-    protected ByteBuffer argbBuffer;
-
         
     public CamImageColor(PApplet parent, Image img) {
         super(parent, img);
@@ -43,19 +39,11 @@ public class CamImageColor extends CamImage {
             throw new RuntimeException("CamImage: Impossible to get the Processing Texture. "
                     + "Check the size arguments, or input image.");
         }
-        tex.setBufferSource(this);
-        // Second time with bufferSource.
-        tex = ((PGraphicsOpenGL) parent.g).getTexture(this);
-
-        argbBuffer = ByteBuffer.allocateDirect(this.pixels.length * 4);
     }
 
     @Override
     public void update(IplImage iplImage) {
-        Texture tex = ((PGraphicsOpenGL) parent.g).getTexture(this);
-        ByteBuffer bgrBuffer = iplImage.getByteBuffer();
-        Utils.byteBufferBRGtoARGB(bgrBuffer, argbBuffer);
-        tex.copyBufferFromSource(null, argbBuffer, width, height);
+        upload(iplImage);
     }
 
 }
@@ -9,7 +9,6 @@
 package fr.inria.papart.procam.camera;
 
 import java.awt.Image;
-import java.nio.ByteBuffer;
 import org.bytedeco.javacpp.opencv_core;
 import processing.core.PApplet;
 import processing.opengl.PGraphicsOpenGL;
@@ -37,22 +36,11 @@ public class CamImageGray extends CamImage {
             throw new RuntimeException("CamImage: Impossible to get the Processing Texture. "
                     + "Check the size arguments, or input image.");
         }
-        tex.setBufferSource(this);
-        // Second time with bufferSource.
-        tex = ((PGraphicsOpenGL) parent.g).getTexture(this);
-
-//        imageBuffer = ByteBuffer.allocateDirect(this.pixels.length);
     }
 
     @Override
     public void update(opencv_core.IplImage iplImage) {
-
-        Texture tex = ((PGraphicsOpenGL) parent.g).getTexture(this);
-        ByteBuffer buffer = iplImage.getByteBuffer();
-
-//         Utils.byteBufferBRGtoARGB(bgrBuffer, argbBuffer);
-        tex.copyBufferFromSource(null, buffer, width, height);
-        buffer.rewind();
+        upload(iplImage);
     }
 
 }
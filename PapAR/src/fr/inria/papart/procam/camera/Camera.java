@@ -13,16 +13,21 @@ package fr.inria.papart.procam.camera;
  * @author jeremylaviole
  */
 import fr.inria.papart.procam.MarkerBoard;
+import fr.inria.papart.procam.NativeBufferPool;
 import fr.inria.papart.procam.ProjectiveDeviceP;
 import fr.inria.papart.procam.Utils;
 import fr.inria.papart.procam.camera.CamImage;
 import fr.inria.papart.procam.camera.CamImageColor;
 import fr.inria.papart.procam.camera.CamImageGray;
+import fr.inria.papart.tracking.ARToolKitPlusDetector;
+import fr.inria.papart.tracking.PoseSnapshot;
 import org.bytedeco.javacpp.opencv_core.CvMat;
 import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,14 +42,20 @@ public abstract class Camera implements PConstants {
 
     public static Camera INVALID_CAMERA = new CameraOpenCV(-1);
 
-    // Images
-    protected IplImage currentImage, copyUndist;
+    // Images, exchanged between the grabbing and the reading threads.
+    private final FrameSlot frameSlot = createFrameSlot();
+    // Draw frame (frameCount of the parent) of the last nextFrame().
+    private int readFrameCount = -1;
 
     protected CamImage camImage = null;
 
+    // Conversions of the frames to PImages, skipped when the frame is the same.
+    protected final PImageConverter pimageConverter = new PImageConverter();
+    private ARToolKitPlusDetector markerDetector = null;
+
     public enum Type {
 
-        OPENCV, PROCESSING, OPEN_KINECT, FLY_CAPTURE
+        OPENCV, PROCESSING, OPEN_KINECT, FLY_CAPTURE, IMAGE_SEQUENCE, FFMPEG, RAW_RECORDING
     }
 
     public enum PixelFormat {
@@ -52,6 +63,17 @@ public abstract class Camera implements PConstants {
         RGB, BGR, ARGB, RGBA, GRAY, DEPTH_KINECT_MM
     }
 
+    /**
+     * How lens distortions are handled when undistortion is on. IMAGE:
+     * every frame is undistorted. POINTS: the tracking works on the raw
+     * frames, only the detected points are undistorted, and the undistorted
+     * image is computed on demand for display.
+     */
+    public enum UndistortMode {
+
+        IMAGE, POINTS
+    }
+
     protected PixelFormat format;
 
     // Parameters
@@ -66,6 +88,11 @@ public abstract class Camera implements PConstants {
     protected boolean isConnected = false;
 
     private boolean undistort = false;
+    private UndistortMode undistortMode = UndistortMode.IMAGE;
+
+    // Undistorted image computed on demand, in POINTS mode.
+    private IplImage undistortedImage = null;
+    private long undistortedSequence = 0;
 
     // Properties files
     private String calibrationFile = null;
@@ -86,6 +113,8 @@ public abstract class Camera implements PConstants {
 
     private CameraThread thread = null;
 
+    private volatile RawFrameRecorder recorder = null;
+
     abstract public void start();
 
     public PImage getImage() {
@@ -126,7 +155,7 @@ public abstract class Camera implements PConstants {
 
     public PImage getPImageCopy() {
         PImage out = parent.createImage(this.width, this.height, RGB);
-        Utils.IplImageToPImage(currentImage, out);
+        Utils.IplImageToPImage(getUndistortedIplImage(), out);
         return out;
     }
 
@@ -138,15 +167,38 @@ public abstract class Camera implements PConstants {
      */
     public PImage getPImageCopy(PApplet context) {
         PImage out = context.createImage(this.width, this.height, RGB);
-        Utils.IplImageToPImage(currentImage, out);
+        Utils.IplImageToPImage(getUndistortedIplImage(), out);
         return out;
     }
 
+    /**
+     * Copy the current image to out. Nothing is done when out already holds
+     * the current frame.
+     *
+     * @param out image of the size of the camera.
+     * @return out.
+     */
     public PImage getPImageCopyTo(PImage out) {
-        Utils.IplImageToPImage(currentImage, this.format, out);
+        IplImage img = getUndistortedIplImage();
+        pimageConverter.convert(img, this.format, getFrameSequence(), out);
         return out;
     }
 
+    public PImageConverter getPImageConverter() {
+        return pimageConverter;
+    }
+
+    /**
+     * @return the ARToolKitPlus marker detector shared by the boards tracked
+     * with this camera, created on the first call.
+     */
+    public synchronized ARToolKitPlusDetector getARToolKitPlusDetector() {
+        if (markerDetector == null) {
+            markerDetector = new ARToolKitPlusDetector(this);
+        }
+        return markerDetector;
+    }
+
     /**
      * Description of the camera, the number if using OpenCV or OpenKinect, and
      * a name or file if using Processing.
@@ -199,6 +251,34 @@ public abstract class Camera implements PConstants {
         this.undistort = undistort;
     }
 
+    public UndistortMode getUndistortMode() {
+        return undistortMode;
+    }
+
+    /**
+     * Set how the lens distortions are handled, to set before the start of
+     * the camera.
+     *
+     * @param undistortMode
+     */
+    public void setUndistortMode(UndistortMode undistortMode) {
+        this.undistortMode = undistortMode;
+    }
+
+    /**
+     * @return true if the frames given by getIplImage() are undistorted.
+     */
+    public boolean isFrameUndistorted() {
+        return undistort && undistortMode == UndistortMode.IMAGE;
+    }
+
+    /**
+     * @return true if the tracking must undistort the points it detects.
+     */
+    public boolean isUndistortingPoints() {
+        return undistort && undistortMode == UndistortMode.POINTS;
+    }
+
     public boolean isCalibrated() {
         return this.calibrationFile != null;
     }
@@ -291,19 +371,120 @@ public abstract class Camera implements PConstants {
         return thread != null;
     }
 
+    /**
+     * @return false if the grabber delivers its frames at its own pace, the
+     * update thread does not wait for the frame rate then.
+     */
+    boolean isPacedByFrameRate() {
+        return true;
+    }
+
+    /**
+     * @return true if the camera calls frameArrived() when a frame can be
+     * grabbed, the update thread waits for it instead of polling.
+     */
+    boolean signalsFrames() {
+        return false;
+    }
+
+    /**
+     * A new frame can be grabbed, wakes up the update thread.
+     */
+    void frameArrived() {
+        CameraThread currentThread = thread;
+        if (currentThread != null) {
+            currentThread.getScheduler().frameArrived();
+        }
+    }
+
+    /**
+     * Frame rate measured by the update thread.
+     *
+     * @return frames per second, 0 if the camera is not threaded.
+     */
+    public float getCaptureFrameRate() {
+        CameraThread currentThread = thread;
+        return currentThread == null ? 0 : currentThread.getScheduler().getCaptureFrameRate();
+    }
+
+    /**
+     * Part of the time the update thread spends waiting for frames.
+     *
+     * @return ratio between 0 and 1, 0 if the camera is not threaded.
+     */
+    public float getCaptureIdleRatio() {
+        CameraThread currentThread = thread;
+        return currentThread == null ? 0 : currentThread.getScheduler().getIdleRatio();
+    }
+
+    /**
+     * Sequence number of the last frame used to update all the tracked
+     * boards.
+     *
+     * @return the sequence number, 0 if no frame was tracked.
+     */
+    public long getTrackedSequence() {
+        CameraThread currentThread = thread;
+        return currentThread == null ? 0 : currentThread.getTracking().getTrackedSequence();
+    }
+
+    /**
+     * Poses of the tracked boards in the last frame tracked by all of them.
+     * Unlike MarkerBoard.getPose() called board by board, they all come from
+     * the same frame. The map is reused by the next frames: read it at
+     * once, copy it to keep it.
+     *
+     * @return an unmodifiable map, empty if no frame was tracked.
+     */
+    public Map<MarkerBoard, PoseSnapshot> getTrackedPoses() {
+        CameraThread currentThread = thread;
+        return currentThread == null
+                ? Collections.<MarkerBoard, PoseSnapshot>emptyMap()
+                : currentThread.getTracking().getTrackedPoses();
+    }
+
+    /**
+     * Time between the capture of the last tracked frame and the end of its
+     * tracking by all the boards.
+     *
+     * @return nanoseconds, -1 if no frame was tracked.
+     */
+    public long getTrackingLatency() {
+        CameraThread currentThread = thread;
+        return currentThread == null ? -1 : currentThread.getTracking().getTrackingLatency();
+    }
+
+    /**
+     * Number of frames not tracked because the tracking of the previous one
+     * was not finished.
+     *
+     * @return the number of dropped frames, 0 if the camera is not threaded.
+     */
+    public long getDroppedTrackingFrames() {
+        CameraThread currentThread = thread;
+        return currentThread == null ? 0 : currentThread.getTracking().getDroppedFrames();
+    }
+
     public void forceCurrentImage(IplImage img) {
         updateCurrentImage(img);
     }
 
     /**
      * Update the current Image, from the specific grabber, lens distorsions are
-     * handled here.
+     * handled here. The image is written in a free buffer of the frame slot,
+     * the grabber can reuse its own buffer as soon as this returns.
      *
      * @param img
      */
     protected void updateCurrentImage(IplImage img) {
+        long captureTime = System.nanoTime();
 
-        if (undistort) {
+        RawFrameRecorder currentRecorder = recorder;
+        if (currentRecorder != null) {
+            currentRecorder.record(img, frameSlot.getLastSequence() + 1, format, captureTime);
+        }
+
+        if (isFrameUndistorted()) {
 
             if (pdp == null || !pdp.handleDistorsions()) {
                 System.err.println("I cannot distort the image for processing. The "
@@ -311,19 +492,63 @@ public abstract class Camera implements PConstants {
                 return;
             }
 
-            if (copyUndist == null) {
-                copyUndist = img.clone();
-            }
+            IplImage undistorted = frameSlot.getWriteBuffer(img);
             // Workaround for crash when the java program is closing
             // to avoid native code to continue to run...
             if (isClosing()) {
                 return;
             }
-            pdp.getDevice().undistort(img, copyUndist);
-            currentImage = copyUndist;
+            pdp.undistort(img, undistorted);
         } else {
-            currentImage = img;
+            cvCopy(img, frameSlot.getWriteBuffer(img));
         }
+        frameSlot.publish(captureTime);
+    }
+
+    /**
+     * Record all the grabbed frames, before the undistortion.
+     *
+     * @param recorder the recorder to use, null to stop the recording. The
+     * previous recorder is not closed.
+     */
+    public void setRecorder(RawFrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public RawFrameRecorder getRecorder() {
+        return this.recorder;
+    }
+
+    /**
+     * Called once, at construction: the subclass fields are not set yet.
+     *
+     * @return the buffers of the frames.
+     */
+    FrameSlot createFrameSlot() {
+        return new FrameSlot(this);
+    }
+
+    FrameSlot getFrameSlot() {
+        return frameSlot;
+    }
+
+    /**
+     * Last frame published by the grabbing thread. To be used only from the
+     * grabbing thread (tracking), it stays valid until the next frame.
+     *
+     * @return the frame, or null if no frame was grabbed yet.
+     */
+    CameraFrame getLastGrabbedFrame() {
+        return frameSlot.getLastPublished();
+    }
+
+    /**
+     * Sequence number of the last image published by the grabbing thread.
+     *
+     * @return
+     */
+    long getLastGrabbedSequence() {
+        return frameSlot.getLastSequence();
     }
 
     /**
@@ -338,6 +563,9 @@ public abstract class Camera implements PConstants {
             if (this.isPixelFormatColor()) {
                 camImage = new CamImageColor(parent, width(), height());
             }
+            if (camImage != null) {
+                camImage.setSourceFormat(getPixelFormat());
+            }
         }
     }
 
@@ -358,8 +586,90 @@ public abstract class Camera implements PConstants {
 // Public API 
     public abstract void grab();
 
+    /**
+     * Take the latest complete frame, it becomes the current frame until the
+     * next call. Called by getIplImage() once per draw, call it directly to
+     * read the frames without a parent applet.
+     *
+     * The frames are read from a single thread, the Processing draw thread.
+     *
+     * @return true if the current frame changed.
+     */
+    public boolean nextFrame() {
+        if (parent != null) {
+            readFrameCount = parent.frameCount;
+        }
+        return frameSlot.update();
+    }
+
+    /**
+     * Get the image of the current frame. It is not modified by the grabbing
+     * thread until the next frame is taken: all the calls during one draw
+     * return the same image.
+     *
+     * The first call of each draw takes the latest frame (see nextFrame()).
+     * Call it from the Processing draw thread only.
+     *
+     * @return the image or null if no image was grabbed yet.
+     */
     public IplImage getIplImage() {
-        return currentImage;
+        if (frameSlot.getFront().getImage() == null
+                || (parent != null && parent.frameCount != readFrameCount)) {
+            nextFrame();
+        }
+        return frameSlot.getFront().getImage();
+    }
+
+    /**
+     * Current frame, the one of getIplImage(), with its capture time and the
+     * times of the pipeline stages. It does not take a new frame. Use it from
+     * the draw thread, it is valid until the next frame is taken.
+     *
+     * @return the frame, its image is null if no image was grabbed yet.
+     */
+    public CameraFrame getCurrentFrame() {
+        return frameSlot.getFront();
+    }
+
+    /**
+     * Get the latest complete image, without lens distortions when the
+     * undistortion is on. In POINTS mode, the undistortion is computed here,
+     * once per frame. To use for display.
+     *
+     * @return the image or null if no image was grabbed yet.
+     */
+    public IplImage getUndistortedIplImage() {
+        IplImage img = getIplImage();
+        if (img == null || !isUndistortingPoints()
+                || pdp == null || !pdp.handleDistorsions()) {
+            return img;
+        }
+        long sequence = getFrameSequence();
+        if (undistortedImage == null
+                || undistortedImage.width() != img.width()
+                || undistortedImage.height() != img.height()
+                || undistortedImage.nChannels() != img.nChannels()
+                || undistortedImage.depth() != img.depth()) {
+            if (undistortedImage != null) {
+                NativeBufferPool.release(undistortedImage);
+            }
+            undistortedImage = Utils.createImageFrom(img);
+            undistortedSequence = 0;
+        }
+        if (sequence != undistortedSequence) {
+            pdp.undistort(img, undistortedImage);
+            undistortedSequence = sequence;
+        }
+        return undistortedImage;
+    }
+
+    /**
+     * Sequence number of the current frame, the one of getIplImage().
+     *
+     * @return the sequence number, starting at 1. 0 if there is no image.
+     */
+    public long getFrameSequence() {
+        return frameSlot.getFront().getSequence();
     }
 
     public ProjectiveDeviceP getProjectiveDevice() {
@@ -0,0 +1,92 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+/**
+ * Replay of a video file, decoded with FFmpeg.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CameraFFMPEG extends CameraReplay {
+
+    private FFmpegFrameGrabber grabber;
+    private final OpenCVFrameConverter.ToIplImage converter;
+
+    protected CameraFFMPEG(String fileName) {
+        super(fileName);
+        converter = new OpenCVFrameConverter.ToIplImage();
+    }
+
+    @Override
+    public void start() {
+        FFmpegFrameGrabber grabberFF = new FFmpegFrameGrabber(this.cameraDescription);
+        grabberFF.setImageMode(FrameGrabber.ImageMode.COLOR);
+
+        try {
+            grabberFF.start();
+            this.grabber = grabberFF;
+            if (width == 0 || height == 0) {
+                this.width = grabberFF.getImageWidth();
+                this.height = grabberFF.getImageHeight();
+            }
+            if (frameRate == 0) {
+                this.frameRate = (int) Math.round(grabberFF.getFrameRate());
+            }
+            this.isConnected = true;
+        } catch (Exception e) {
+            System.err.println("Could not start FFmpeg frameGrabber... " + e);
+            System.err.println("Video " + this.cameraDescription + " could not be opened.");
+            this.grabber = null;
+        }
+    }
+
+    @Override
+    protected IplImage readFrame() throws Exception {
+        Frame frame;
+        // Skip the audio frames.
+        do {
+            frame = grabber.grab();
+        } while (frame != null && frame.image == null);
+
+        if (frame == null) {
+            return null;
+        }
+        return converter.convertToIplImage(frame);
+    }
+
+    @Override
+    protected long getFrameTimestamp() {
+        return grabber.getTimestamp();
+    }
+
+    @Override
+    protected void rewind() throws Exception {
+        grabber.setTimestamp(0);
+    }
+
+    @Override
+    public void close() {
+        this.setClosing();
+        if (grabber != null) {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                System.out.println("Impossible to close " + e);
+            }
+        }
+    }
+
+}
@@ -26,6 +26,10 @@ public class CameraFactory {
         if (type == Type.PROCESSING) {
             throw new RuntimeException("PROCESSING_VIDEO requires a String describing the camera.");
         }
+        if (type == Type.IMAGE_SEQUENCE || type == Type.FFMPEG
+                || type == Type.RAW_RECORDING) {
+            throw new RuntimeException("Replay cameras require the path of the recording.");
+        }
 
         Camera camera;
         switch (type) {
@@ -46,14 +50,27 @@ public class CameraFactory {
 
     /**
      *
-     * @param type must be PROCESSING_VIDEO
+     * @param type any type, PROCESSING_VIDEO and the replay types require a
+     * String.
      * @param description device of the camera (/dev/video0) or name. see the
-     * Processing GettingStartedCamera example to get the name.
+     * Processing GettingStartedCamera example to get the name. Directory of
+     * images for IMAGE_SEQUENCE, video file for FFMPEG, recording for
+     * RAW_RECORDING.
      * @return
      */
     public static Camera createCamera(Camera.Type type, String description) {
         Camera camera;
 
+        if (type == Type.IMAGE_SEQUENCE) {
+            return new CameraImageSequence(description);
+        }
+        if (type == Type.FFMPEG) {
+            return new CameraFFMPEG(description);
+        }
+        if (type == Type.RAW_RECORDING) {
+            return new CameraRawReplay(description);
+        }
+
         if (type != Type.PROCESSING) {
             boolean isInt = checkInt(description);
             if (!isInt) {
@@ -0,0 +1,129 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * A frame of a camera, with its capture time, its sequence number and the
+ * time it reached each stage of the pipeline. All times come from
+ * System.nanoTime().
+ *
+ * Frames are reused: a frame is valid until its owner (grabbing thread,
+ * tracking or reading thread) gives it back.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CameraFrame {
+
+    public enum Stage {
+
+        CAPTURED, PUBLISHED, TRACKING_STARTED, TRACKING_DONE, DISPLAYED, RENDERED
+    }
+
+    private static final int NB_STAGES = Stage.values().length;
+
+    private final Camera camera;
+    IplImage image = null;
+    private long sequence = 0;
+    private long captureTime = 0;
+    private final long[] stageTimes = new long[NB_STAGES];
+    private final DerivedImages derivedImages = new DerivedImages(this);
+
+    CameraFrame(Camera camera) {
+        this.camera = camera;
+    }
+
+    void setCaptured(long sequence, long captureTime) {
+        this.sequence = sequence;
+        this.captureTime = captureTime;
+        for (int i = 0; i < NB_STAGES; i++) {
+            stageTimes[i] = 0;
+        }
+        stageTimes[Stage.CAPTURED.ordinal()] = captureTime;
+        derivedImages.invalidate();
+    }
+
+    /**
+     * Copy the sequence and the times of another frame, not the image.
+     *
+     * @param frame
+     */
+    void copyInfo(CameraFrame frame) {
+        this.sequence = frame.sequence;
+        this.captureTime = frame.captureTime;
+        System.arraycopy(frame.stageTimes, 0, stageTimes, 0, NB_STAGES);
+        derivedImages.invalidate();
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public IplImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the gray, half resolution, pyramid and integral images of this
+     * frame, computed on demand and shared by all their users.
+     */
+    public DerivedImages getDerivedImages() {
+        return derivedImages;
+    }
+
+    /**
+     * @return the sequence number, starting at 1 for each camera.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return capture time, in nanoseconds.
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * @return capture time, in seconds.
+     */
+    public double getCaptureTimeSeconds() {
+        return captureTime / 1e9;
+    }
+
+    /**
+     * Set the time the frame reaches a stage of the pipeline.
+     *
+     * @param stage
+     */
+    public void markStage(Stage stage) {
+        stageTimes[stage.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * @param stage
+     * @return the time the frame reached the stage, 0 if not reached.
+     */
+    public long getStageTime(Stage stage) {
+        return stageTimes[stage.ordinal()];
+    }
+
+    /**
+     * @param stage
+     * @return nanoseconds between the capture and the stage, -1 if the stage
+     * is not reached.
+     */
+    public long getLatency(Stage stage) {
+        long time = stageTimes[stage.ordinal()];
+        return time == 0 ? -1 : time - captureTime;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_imgcodecs.cvLoadImage;
+
+/**
+ * Replay of a directory of images, played in the alphabetical order of their
+ * names. The frames are spaced according to the frame rate (30 fps if not
+ * set).
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CameraImageSequence extends CameraReplay {
+
+    private static final int DEFAULT_FRAME_RATE = 30;
+
+    private File[] files;
+    private int nextFile = 0;
+    private int frameNumber = -1;
+    private IplImage image = null;
+
+    protected CameraImageSequence(String directory) {
+        super(directory);
+    }
+
+    @Override
+    public void start() {
+        File directory = new File(cameraDescription);
+        files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                String lower = name.toLowerCase();
+                return lower.endsWith(".png") || lower.endsWith(".jpg")
+                        || lower.endsWith(".jpeg") || lower.endsWith(".bmp")
+                        || lower.endsWith(".tif") || lower.endsWith(".tiff");
+            }
+        });
+
+        if (files == null || files.length == 0) {
+            System.err.println("Camera: no image found in " + cameraDescription);
+            files = null;
+            this.setClosing();
+            return;
+        }
+        Arrays.sort(files);
+
+        if (frameRate == 0) {
+            frameRate = DEFAULT_FRAME_RATE;
+        }
+        if (width == 0 || height == 0) {
+            IplImage first = cvLoadImage(files[0].getAbsolutePath());
+            if (first != null) {
+                this.width = first.width();
+                this.height = first.height();
+                first.release();
+            }
+        }
+        this.isConnected = true;
+    }
+
+    @Override
+    protected IplImage readFrame() throws Exception {
+        releaseImage();
+        if (files == null) {
+            return null;
+        }
+        while (nextFile < files.length) {
+            File file = files[nextFile++];
+            image = cvLoadImage(file.getAbsolutePath());
+            if (image != null) {
+                frameNumber++;
+                return image;
+            }
+            System.err.println("Camera: cannot load " + file);
+        }
+        return null;
+    }
+
+    @Override
+    protected long getFrameTimestamp() {
+        return frameNumber * 1000000L / frameRate;
+    }
+
+    @Override
+    protected void rewind() {
+        nextFile = 0;
+        frameNumber = -1;
+    }
+
+    private void releaseImage() {
+        if (image != null) {
+            image.release();
+            image = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.setClosing();
+        releaseImage();
+    }
+
+}
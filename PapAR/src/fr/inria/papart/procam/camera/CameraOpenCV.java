@@ -71,9 +71,10 @@ public class CameraOpenCV extends Camera {
     @Override
     public PImage getPImage() {
 
-        if (currentImage != null) {
+        IplImage img = getUndistortedIplImage();
+        if (img != null) {
             this.checkCamImage();
-            camImage.update(currentImage);
+            camImage.update(img);
             return camImage;
         }
         // TODO: exceptions !!!
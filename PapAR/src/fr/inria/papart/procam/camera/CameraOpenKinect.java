@@ -8,7 +8,6 @@
  */
 package fr.inria.papart.procam.camera;
 
-import fr.inria.papart.procam.Utils;
 import java.util.HashMap;
 import org.bytedeco.javacpp.freenect;
 import org.bytedeco.javacpp.opencv_core.IplImage;
@@ -65,7 +64,8 @@ public class CameraOpenKinect extends Camera {
             IplImage img = grabber.grabVideo();
             updateCurrentImage(img);
 
-            if (this.isGrabbingDepth) {
+            // The depth has its own thread when this camera is threaded.
+            if (this.isGrabbingDepth && !depthCamera.useThread()) {
                 depthCamera.grab();
             }
 
@@ -78,17 +78,95 @@ public class CameraOpenKinect extends Camera {
     @Override
     public PImage getPImage() {
         this.checkCamImage();
-        if (currentImage != null) {
-            camImage.update(currentImage);
+        IplImage img = getUndistortedIplImage();
+        if (img != null) {
+            camImage.update(img);
             return camImage;
         }
         // TODO: exceptions !!!
         return null;
     }
 
+    /**
+     * The depth stream is grabbed in its own thread, at its own rate.
+     */
+    @Override
+    public void setThread() {
+        super.setThread();
+        if (isGrabbingDepth && !depthCamera.useThread()) {
+            depthCamera.setThread();
+        }
+    }
+
+    @Override
+    public void stopThread() {
+        super.stopThread();
+        depthCamera.stopThread();
+    }
+
+    /**
+     * Get the current color frame, and the recent depth frame captured the
+     * closest in time to it (a few depth frames are kept).
+     *
+     * The color frame is the current frame, the one of getIplImage(): call
+     * it from the draw thread. The depth frame is not copied, it is kept
+     * from the depth grabber until the next call. getFramePair() does not
+     * advance the depth camera.
+     *
+     * @return the pair, valid until the next call.
+     */
+    public FramePair getFramePair() {
+        getIplImage();
+        framePair.colorFrame = getCurrentFrame();
+        framePair.depthFrame = depthCamera.getClosestFrame(framePair.colorFrame.getCaptureTime());
+        return framePair;
+    }
+
+    private final FramePair framePair = new FramePair();
+
+    /**
+     * Color and depth frames of the Kinect.
+     */
+    public static class FramePair {
+
+        private CameraFrame colorFrame;
+        private CameraFrame depthFrame;
+
+        public CameraFrame getColorFrame() {
+            return colorFrame;
+        }
+
+        /**
+         * @return the depth frame, null if no depth frame was grabbed yet.
+         */
+        public CameraFrame getDepthFrame() {
+            return depthFrame;
+        }
+
+        /**
+         * @return depth capture time minus color capture time, in
+         * nanoseconds. 0 without depth frame.
+         */
+        public long getTimeSkew() {
+            if (depthFrame == null) {
+                return 0;
+            }
+            return depthFrame.getCaptureTime() - colorFrame.getCaptureTime();
+        }
+
+        /**
+         * @return true if both frames have an image.
+         */
+        public boolean isComplete() {
+            return colorFrame.getImage() != null
+                    && depthFrame != null && depthFrame.getImage() != null;
+        }
+    }
+
     @Override
     public void close() {
         setClosing();
+        depthCamera.close();
         if (grabber != null) {
             try {
                 this.stopThread();
@@ -101,6 +179,9 @@ public class CameraOpenKinect extends Camera {
 
     public CameraOpenKinectDepth getDepthCamera() {
         this.setGrabDepth(true);
+        if (useThread() && !depthCamera.useThread()) {
+            depthCamera.setThread();
+        }
         return this.depthCamera;
     }
 
@@ -117,7 +198,8 @@ public class CameraOpenKinect extends Camera {
 
     public PImage getDisplayedOn(PApplet display) {
         PImage image = imageMap.get(display);
-        Utils.IplImageToPImage(currentImage, false, image);
+        IplImage img = getUndistortedIplImage();
+        pimageConverter.convert(img, PixelFormat.BGR, getFrameSequence(), image);
         return image;
     }
 
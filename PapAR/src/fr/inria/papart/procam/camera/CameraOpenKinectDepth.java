@@ -8,7 +8,6 @@
  */
 package fr.inria.papart.procam.camera;
 
-import fr.inria.papart.procam.Utils;
 import org.bytedeco.javacpp.freenect;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import processing.core.PApplet;
@@ -24,26 +23,38 @@ public class CameraOpenKinectDepth extends Camera {
     private int depthFormat = freenect.FREENECT_DEPTH_MM;
     // other possibility freenect.FREENECT_DEPTH_10_BIT -> Obselete;
 
-    private IplImage depthImage;
     private PImage camImageDepth = null;
 
+    // Depth frames kept to pair them with the color frames.
+    private static final int HISTORY_SIZE = 4;
+
     protected CameraOpenKinectDepth(CameraOpenKinect parent) {
         this.parent = parent;
         this.setPixelFormat(PixelFormat.DEPTH_KINECT_MM);
     }
 
-    // Nothing, this is virtual...
+    @Override
+    FrameSlot createFrameSlot() {
+        return new FrameHistory(this, HISTORY_SIZE);
+    }
+
+    // The grabber is started by the parent.
     @Override
     public void start() {
         parent.grabber.setDepthFormat(depthFormat);
+        this.isConnected = true;
     }
 
     @Override
     public void grab() {
+        if (this.isClosing()) {
+            return;
+        }
         try {
             IplImage img = parent.grabber.grabDepth();
-
-            this.currentImage = img;
+            if (img != null) {
+                this.updateCurrentImage(img);
+            }
         } catch (Exception e) {
             System.err.println("Camera: Kinect Grab depth Error ! " + e);
             e.printStackTrace();
@@ -51,21 +62,43 @@ public class CameraOpenKinectDepth extends Camera {
 
     }
 
+    /**
+     * Recent depth frame captured the closest to a given time, without copy.
+     * Call it from the draw thread, the frame is not modified until the next
+     * call.
+     *
+     * @param captureTime time to match, from System.nanoTime().
+     * @return the frame, null if no depth frame was grabbed yet.
+     */
+    CameraFrame getClosestFrame(long captureTime) {
+        return ((FrameHistory) getFrameSlot()).getClosest(captureTime);
+    }
+
     @Override
     public PImage getPImage() {
         if (camImageDepth == null) {
-            camImageDepth = parent.parent.createImage(width, height, PApplet.ALPHA);
+            camImageDepth = parent.parent.createImage(width, height, PApplet.RGB);
         }
 
-        if (depthImage != null) {
-            Utils.IplImageToPImageKinect(depthImage, false, camImageDepth);
-        }
+        // Depth range mapped to gray levels, see getDepthColorizer().
+        IplImage depthImage = getIplImage();
+        pimageConverter.convert(depthImage, PixelFormat.DEPTH_KINECT_MM,
+                getFrameSequence(), camImageDepth);
         return camImageDepth;
     }
 
+    // The grabber is stopped by the parent.
     @Override
     public void close() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        this.setClosing();
+    }
+
+    /**
+     * @return the colors used by getPImage(), to change the depth range or
+     * the lookup table.
+     */
+    public DepthColorizer getDepthColorizer() {
+        return pimageConverter.getDepthColorizer();
     }
 
     public int getDepthFormat() {
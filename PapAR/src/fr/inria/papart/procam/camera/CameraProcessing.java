@@ -8,9 +8,10 @@
  */
 package fr.inria.papart.procam.camera;
 
-import java.util.concurrent.TimeUnit;
+import java.lang.reflect.Method;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import processing.core.PImage;
+import processing.video.Capture;
 
 /**
  *
@@ -20,6 +21,9 @@ public class CameraProcessing extends Camera {
 
     protected CaptureIpl captureIpl;
 
+    // captureEvent() of the sketch, still called after the update thread.
+    private Method sketchCaptureEvent = null;
+
     protected CameraProcessing(String description) {
         this.cameraDescription = description;
         this.setPixelFormat(PixelFormat.ARGB);
@@ -37,10 +41,39 @@ public class CameraProcessing extends Camera {
             this.captureIpl = new CaptureIpl(parent, width, height, cameraDescription);
         }
 
+        try {
+            sketchCaptureEvent = parent.getClass().getMethod("captureEvent", Capture.class);
+        } catch (NoSuchMethodException e) {
+            sketchCaptureEvent = null;
+        }
+        this.captureIpl.setEventHandlerObject(this);
+
         this.captureIpl.start();
         this.isConnected = true;
     }
 
+    /**
+     * Capture event, called by the capture for each new frame: wakes up the
+     * update thread. Not to be called directly.
+     *
+     * @param capture
+     */
+    public void captureEvent(Capture capture) {
+        frameArrived();
+        if (sketchCaptureEvent != null) {
+            try {
+                sketchCaptureEvent.invoke(parent, capture);
+            } catch (Exception e) {
+                System.err.println("CameraProcessing: error in captureEvent " + e);
+            }
+        }
+    }
+
+    @Override
+    boolean signalsFrames() {
+        return true;
+    }
+
     @Override
     public void grab() {
         if (this.isClosing()) {
@@ -53,8 +86,6 @@ public class CameraProcessing extends Camera {
             if (img != null) {
                 updateCurrentImage(img);
             }
-        } else {  // sleep for a short time..
-            waitForNextFrame();
         }
     }
 
@@ -63,14 +94,6 @@ public class CameraProcessing extends Camera {
         return this.captureIpl;
     }
 
-    private void waitForNextFrame() {
-        try {
-            // TimeUnit.MILLISECONDS.sleep((long) (1f / frameRate));
-            TimeUnit.MILLISECONDS.sleep((long) (10));
-        } catch (Exception e) {
-        }
-    }
-
     @Override
     public void close() {
         this.setClosing();
@@ -0,0 +1,95 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.io.IOException;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Replay of a recording made with a RawFrameRecorder. The frames are read
+ * from the mapped file without copy.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CameraRawReplay extends CameraReplay {
+
+    private RawFrameReader reader;
+    private int nextFrame = 0;
+    private long firstTimestamp = 0;
+    private long frameTimestamp = 0;
+
+    protected CameraRawReplay(String fileName) {
+        super(fileName);
+    }
+
+    @Override
+    public void start() {
+        try {
+            reader = new RawFrameReader(cameraDescription);
+        } catch (IOException e) {
+            System.err.println("Camera: cannot open the recording " + cameraDescription + " " + e);
+            return;
+        }
+        if (reader.getNbFrames() == 0) {
+            System.err.println("Camera: empty recording " + cameraDescription);
+            return;
+        }
+
+        firstTimestamp = reader.getTimestamp(0);
+        if (reader.getPixelFormat(0) != null) {
+            setPixelFormat(reader.getPixelFormat(0));
+        }
+        try {
+            IplImage first = reader.getFrame(0);
+            if (first != null && (width == 0 || height == 0)) {
+                this.width = first.width();
+                this.height = first.height();
+            }
+        } catch (IOException e) {
+            System.err.println("Camera: cannot read the recording " + cameraDescription + " " + e);
+            return;
+        }
+        this.isConnected = true;
+    }
+
+    @Override
+    protected IplImage readFrame() throws Exception {
+        if (nextFrame >= reader.getNbFrames()) {
+            return null;
+        }
+        frameTimestamp = (reader.getTimestamp(nextFrame) - firstTimestamp) / 1000;
+        return reader.getFrame(nextFrame++);
+    }
+
+    @Override
+    protected long getFrameTimestamp() {
+        return frameTimestamp;
+    }
+
+    @Override
+    protected void rewind() {
+        nextFrame = 0;
+    }
+
+    /**
+     * @return the number of frames in the recording.
+     */
+    public int getNbFrames() {
+        return reader == null ? 0 : reader.getNbFrames();
+    }
+
+    @Override
+    public void close() {
+        this.setClosing();
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+}
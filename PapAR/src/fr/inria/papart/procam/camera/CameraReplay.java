@@ -0,0 +1,183 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import processing.core.PImage;
+
+/**
+ * Camera playing back recorded frames instead of a device. The frames go
+ * through updateCurrentImage() and the CameraThread like live ones.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public abstract class CameraReplay extends Camera {
+
+    public enum PlaybackMode {
+
+        /**
+         * A new frame at each grab.
+         */
+        AS_FAST_AS_POSSIBLE,
+        /**
+         * Frames are delivered following their recorded timestamps.
+         */
+        ORIGINAL_TIMESTAMPS
+    }
+
+    private PlaybackMode playbackMode = PlaybackMode.ORIGINAL_TIMESTAMPS;
+    private boolean loop = true;
+    private volatile boolean paused = false;
+    private final AtomicInteger pendingSteps = new AtomicInteger(0);
+
+    // Playback clock, in nanoseconds.
+    private long playbackStart = 0;
+    private volatile long firstTimestamp = -1;
+    private boolean endReached = false;
+
+    protected CameraReplay(String fileName) {
+        this.cameraDescription = fileName;
+        this.setPixelFormat(PixelFormat.BGR);
+    }
+
+    /**
+     * Read the next recorded frame.
+     *
+     * @return the frame, or null at the end of the recording. It must stay
+     * valid until the next call.
+     * @throws Exception
+     */
+    protected abstract IplImage readFrame() throws Exception;
+
+    /**
+     * @return timestamp of the last frame read, in microseconds.
+     */
+    protected abstract long getFrameTimestamp();
+
+    /**
+     * Go back to the first frame of the recording.
+     *
+     * @throws Exception
+     */
+    protected abstract void rewind() throws Exception;
+
+    @Override
+    public void grab() {
+        if (this.isClosing() || endReached) {
+            return;
+        }
+        if (paused && pendingSteps.get() == 0) {
+            return;
+        }
+
+        try {
+            IplImage img = readFrame();
+            if (img == null) {
+                if (!loop) {
+                    endReached = true;
+                    return;
+                }
+                rewind();
+                firstTimestamp = -1;
+                img = readFrame();
+                if (img == null) {
+                    endReached = true;
+                    return;
+                }
+            }
+
+            if (paused) {
+                pendingSteps.decrementAndGet();
+            } else if (playbackMode == PlaybackMode.ORIGINAL_TIMESTAMPS) {
+                waitForTimestamp(getFrameTimestamp());
+            }
+            updateCurrentImage(img);
+        } catch (Exception e) {
+            System.err.println("Camera: Replay Grab() Error ! " + e);
+        }
+    }
+
+    private void waitForTimestamp(long timestamp) {
+        long now = System.nanoTime();
+        if (firstTimestamp == -1) {
+            firstTimestamp = timestamp;
+            playbackStart = now;
+            return;
+        }
+        long deadline = playbackStart + (timestamp - firstTimestamp) * 1000L;
+        while (deadline - now > 0) {
+            LockSupport.parkNanos(this, deadline - now);
+            now = System.nanoTime();
+        }
+    }
+
+    @Override
+    boolean isPacedByFrameRate() {
+        return false;
+    }
+
+    @Override
+    public PImage getPImage() {
+        IplImage img = getUndistortedIplImage();
+        if (img != null) {
+            this.checkCamImage();
+            camImage.update(img);
+            return camImage;
+        }
+        return null;
+    }
+
+    public PlaybackMode getPlaybackMode() {
+        return playbackMode;
+    }
+
+    public void setPlaybackMode(PlaybackMode playbackMode) {
+        this.playbackMode = playbackMode;
+        this.firstTimestamp = -1;
+    }
+
+    public boolean isLooping() {
+        return loop;
+    }
+
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Pause or resume the playback. The timestamps are followed again from
+     * the next frame after a resume.
+     *
+     * @param paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        this.firstTimestamp = -1;
+    }
+
+    /**
+     * Deliver exactly one more frame while paused.
+     */
+    public void step() {
+        pendingSteps.incrementAndGet();
+    }
+
+    /**
+     * @return true when the recording is finished and not looping.
+     */
+    public boolean isEndReached() {
+        return endReached;
+    }
+}
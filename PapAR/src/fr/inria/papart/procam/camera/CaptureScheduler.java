@@ -0,0 +1,171 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the grabbing loop of a CameraThread.
+ *
+ * Blocking grabbers (OpenCV, FlyCapture, Kinect) wake up the loop when a frame
+ * arrives, the scheduler only keeps them from running faster than the camera
+ * frame rate. Non-blocking grabbers wait for frameArrived() when the camera
+ * signals its frames (Processing), or else are polled at the expected arrival
+ * time of the next frame, then at short intervals until it arrives.
+ *
+ * The loop stops waiting when its thread is interrupted, the interrupt flag
+ * is kept for the loop to exit.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+class CaptureScheduler {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long MIN_POLL = 500000L; // 0.5 ms
+    private static final long MAX_POLL = 10000000L; // 10 ms, the old fixed sleep.
+    // Longest wait for a signaled frame, in case a signal is missed.
+    private static final long MAX_SIGNAL_WAIT = 100000000L; // 100 ms
+    private static final long STATS_PERIOD = NANOS_PER_SECOND;
+
+    private final Camera camera;
+
+    private long lastSequence = 0;
+    private long lastFrameTime = 0;
+
+    // Set by frameArrived(), cleared before each grab.
+    private volatile boolean frameSignaled = false;
+    private volatile Thread grabbingThread = null;
+
+    // Statistics
+    private long statsStart = 0;
+    private long statsIdle = 0;
+    private int statsFrames = 0;
+    private volatile float captureFrameRate = 0;
+    private volatile float idleRatio = 0;
+
+    CaptureScheduler(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Called before grabbing, waits if the previous frame came in less than
+     * a frame period ago.
+     */
+    void beforeGrab() {
+        if (statsStart == 0) {
+            grabbingThread = Thread.currentThread();
+            statsStart = System.nanoTime();
+        }
+        long period = getFramePeriod();
+        if (period != 0 && lastFrameTime != 0) {
+            // Keep a quarter of period of slack, not to let the driver queue
+            // frames when the camera is slightly faster than announced.
+            idleUntil(lastFrameTime + period - period / 4, false);
+        }
+        // A frame signaled from now on is not grabbed yet.
+        frameSignaled = false;
+    }
+
+    /**
+     * Called by the camera when a new frame can be grabbed, from any thread.
+     * It wakes up the grabbing loop.
+     */
+    void frameArrived() {
+        frameSignaled = true;
+        Thread thread = grabbingThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Called after grabbing, waits for the next frame when the grabber
+     * returned without a new one.
+     *
+     * @return true if a new frame was grabbed.
+     */
+    boolean afterGrab() {
+        long now = System.nanoTime();
+        long sequence = camera.getLastGrabbedSequence();
+        boolean newFrame = sequence != lastSequence;
+
+        if (newFrame) {
+            lastSequence = sequence;
+            lastFrameTime = now;
+            statsFrames++;
+        } else if (camera.signalsFrames()) {
+            idleUntil(now + MAX_SIGNAL_WAIT, true);
+        } else {
+            long period = getFramePeriod();
+            long nextFrame = lastFrameTime + period;
+            if (period == 0 || nextFrame <= now) {
+                // Late frame: poll at short intervals.
+                long poll = period == 0 ? MAX_POLL : period / 16;
+                nextFrame = now + Math.max(MIN_POLL, Math.min(MAX_POLL, poll));
+            }
+            idleUntil(nextFrame, false);
+        }
+        updateStatistics(now);
+        return newFrame;
+    }
+
+    private long getFramePeriod() {
+        if (!camera.isPacedByFrameRate()) {
+            return 0;
+        }
+        int frameRate = camera.getFrameRate();
+        if (frameRate <= 0) {
+            return 0;
+        }
+        return NANOS_PER_SECOND / frameRate;
+    }
+
+    private void idleUntil(long deadline, boolean untilSignaled) {
+        long start = System.nanoTime();
+        long remaining = deadline - start;
+        while (remaining > 0 && !(untilSignaled && frameSignaled)
+                && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        statsIdle += System.nanoTime() - start;
+    }
+
+    private void updateStatistics(long now) {
+        long elapsed = now - statsStart;
+        if (elapsed < STATS_PERIOD) {
+            return;
+        }
+        captureFrameRate = (float) statsFrames * NANOS_PER_SECOND / elapsed;
+        idleRatio = (float) statsIdle / elapsed;
+        statsStart = now;
+        statsFrames = 0;
+        statsIdle = 0;
+    }
+
+    /**
+     * Measured capture frame rate, updated every second.
+     *
+     * @return frames per second.
+     */
+    float getCaptureFrameRate() {
+        return captureFrameRate;
+    }
+
+    /**
+     * Part of the time the grabbing thread spent waiting, updated every
+     * second.
+     *
+     * @return ratio between 0 and 1.
+     */
+    float getIdleRatio() {
+        return idleRatio;
+    }
+
+}
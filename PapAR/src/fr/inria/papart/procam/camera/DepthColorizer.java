@@ -0,0 +1,123 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Converts depth frames to ARGB pixels with a lookup table of 65536 colors,
+ * one per depth value. The rows are converted in parallel.
+ *
+ * By default the table maps a range of depths to 8 bits gray levels: near is
+ * white, far is black, and depths without measure are black.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DepthColorizer {
+
+    public static final int TABLE_SIZE = 65536;
+
+    private int[] lookupTable;
+
+    public DepthColorizer() {
+        this(500, 4000);
+    }
+
+    /**
+     * @param near depth shown in white.
+     * @param far depth shown in black.
+     */
+    public DepthColorizer(int near, int far) {
+        setRange(near, far);
+    }
+
+    /**
+     * Map the depths from near to far to the gray levels 255 to 0.
+     *
+     * @param near
+     * @param far
+     */
+    public void setRange(int near, int far) {
+        setLookupTable(createRangeTable(near, far));
+    }
+
+    /**
+     * @param table ARGB color of each depth value, of size TABLE_SIZE.
+     */
+    public void setLookupTable(int[] table) {
+        if (table.length != TABLE_SIZE) {
+            throw new RuntimeException("DepthColorizer: the table must have "
+                    + TABLE_SIZE + " entries.");
+        }
+        this.lookupTable = table;
+    }
+
+    public int[] getLookupTable() {
+        return lookupTable;
+    }
+
+    /**
+     * Gray levels table, 0 (no measure) is black.
+     *
+     * @param near depth shown in white.
+     * @param far depth shown in black.
+     * @return the table.
+     */
+    public static int[] createRangeTable(int near, int far) {
+        int[] table = new int[TABLE_SIZE];
+        float scale = 255f / Math.max(1, far - near);
+        table[0] = 0xFF000000;
+        for (int d = 1; d < TABLE_SIZE; d++) {
+            int v = 255 - (int) ((d - near) * scale);
+            v = Math.max(0, Math.min(255, v));
+            table[d] = 0xFF000000 | v << 16 | v << 8 | v;
+        }
+        return table;
+    }
+
+    /**
+     * Table of the raw depth values: each pixel holds its depth, not a color.
+     *
+     * @return the table.
+     */
+    public static int[] createRawTable() {
+        int[] table = new int[TABLE_SIZE];
+        for (int d = 0; d < TABLE_SIZE; d++) {
+            table[d] = d;
+        }
+        return table;
+    }
+
+    /**
+     * Colorize a depth frame.
+     *
+     * @param frame
+     * @param argb array of at least width * height pixels.
+     */
+    public void toARGB(DepthFrame frame, int[] argb) {
+        // The table can be replaced during the conversion.
+        int[] table = lookupTable;
+        ShortBuffer data = frame.getData();
+        int width = frame.getWidth();
+        int rowStride = frame.getRowStride();
+
+        PixelConverter.forEachStripe(frame.getHeight(), (startRow, endRow) -> {
+            ShortBuffer input = data.duplicate();
+            short[] row = PixelConverter.getRowBuffers().ensureShorts(width);
+            for (int y = startRow; y < endRow; y++) {
+                input.position(y * rowStride);
+                input.get(row, 0, width);
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    argb[offset + x] = table[row[x] & 0xFFFF];
+                }
+            }
+        });
+    }
+}
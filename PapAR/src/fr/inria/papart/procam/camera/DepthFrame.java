@@ -0,0 +1,89 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_16U;
+
+/**
+ * 16 bits depth image, read in the native byte order of the camera driver.
+ * Values are unsigned, in millimeters for the Kinect in FREENECT_DEPTH_MM,
+ * 0 when there is no measure.
+ *
+ * The frame wraps the IplImage memory, it is valid as long as the image is.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DepthFrame {
+
+    private IplImage image = null;
+    private ShortBuffer data = null;
+    private int width, height, rowStride;
+
+    public DepthFrame() {
+    }
+
+    public DepthFrame(IplImage image) {
+        set(image);
+    }
+
+    /**
+     * Wrap a depth image.
+     *
+     * @param image 16 bits, 1 channel image.
+     * @return this.
+     */
+    public DepthFrame set(IplImage image) {
+        if (image.depth() != IPL_DEPTH_16U || image.nChannels() != 1) {
+            throw new RuntimeException("DepthFrame: 16 bits 1 channel image expected.");
+        }
+        // The data of an image can be replaced, the view is always rebuilt.
+        this.data = image.getByteBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
+        this.image = image;
+        this.width = image.width();
+        this.height = image.height();
+        this.rowStride = image.widthStep() / 2;
+        return this;
+    }
+
+    /**
+     * @return the depth values, rows are getRowStride() values apart. Use
+     * duplicate() to read it from several threads.
+     */
+    public ShortBuffer getData() {
+        return data;
+    }
+
+    public IplImage getImage() {
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the depth value, unsigned.
+     */
+    public int getDepth(int x, int y) {
+        return data.get(y * rowStride + x) & 0xFFFF;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.NativeBufferPool;
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.util.ArrayList;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_32S;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_BGR2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_GAUSSIAN_5x5;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_RGB2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_RGBA2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.cvCvtColor;
+import static org.bytedeco.javacpp.opencv_imgproc.cvIntegral;
+import static org.bytedeco.javacpp.opencv_imgproc.cvPyrDown;
+
+/**
+ * Images computed from the image of a frame, shared by all the trackers and
+ * views using the frame. Each image is computed at most once per frame, on
+ * the first request. They must not be modified.
+ *
+ * The buffers are reused from one frame to the next.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DerivedImages {
+
+    private final CameraFrame frame;
+
+    private IplImage gray = null, half = null, integral = null;
+    private boolean grayValid = false, halfValid = false, integralValid = false;
+
+    // Level 0 is the gray image, not stored here.
+    private final ArrayList<IplImage> pyramid = new ArrayList<>();
+    private int pyramidValidLevels = 0;
+
+    DerivedImages(CameraFrame frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Called when the image of the frame changes.
+     */
+    synchronized void invalidate() {
+        grayValid = false;
+        halfValid = false;
+        integralValid = false;
+        pyramidValidLevels = 0;
+    }
+
+    /**
+     * @return the gray image, the image itself if it has one channel.
+     */
+    public synchronized IplImage getGray() {
+        IplImage image = frame.getImage();
+        if (image == null || image.nChannels() == 1) {
+            return image;
+        }
+        if (!grayValid) {
+            gray = checkImage(gray, image.width(), image.height(), IPL_DEPTH_8U, 1);
+            cvCvtColor(image, gray, getGrayConversion(image));
+            grayValid = true;
+        }
+        return gray;
+    }
+
+    private int getGrayConversion(IplImage image) {
+        if (image.nChannels() > 3) {
+            return CV_RGBA2GRAY;
+        }
+        PixelFormat format = frame.getCamera() == null ? null : frame.getCamera().getPixelFormat();
+        return format == PixelFormat.RGB ? CV_RGB2GRAY : CV_BGR2GRAY;
+    }
+
+    /**
+     * @return the image at half resolution, Gaussian filtered.
+     */
+    public synchronized IplImage getHalfResolution() {
+        IplImage image = frame.getImage();
+        if (image == null) {
+            return null;
+        }
+        if (!halfValid) {
+            half = checkImage(half, (image.width() + 1) / 2, (image.height() + 1) / 2,
+                    image.depth(), image.nChannels());
+            cvPyrDown(image, half, CV_GAUSSIAN_5x5);
+            halfValid = true;
+        }
+        return half;
+    }
+
+    /**
+     * Gaussian pyramid of the gray image.
+     *
+     * @param level 0 is the gray image, each level halves the resolution.
+     * @return the image of the level.
+     */
+    public synchronized IplImage getGrayPyramid(int level) {
+        IplImage previous = getGray();
+        if (previous == null || level == 0) {
+            return previous;
+        }
+        for (int i = 1; i <= level; i++) {
+            if (pyramid.size() < i) {
+                pyramid.add(null);
+            }
+            IplImage current = pyramid.get(i - 1);
+            if (pyramidValidLevels < i) {
+                current = checkImage(current, (previous.width() + 1) / 2, (previous.height() + 1) / 2,
+                        IPL_DEPTH_8U, 1);
+                cvPyrDown(previous, current, CV_GAUSSIAN_5x5);
+                pyramid.set(i - 1, current);
+                pyramidValidLevels = i;
+            }
+            previous = current;
+        }
+        return previous;
+    }
+
+    /**
+     * @return the integral image of the gray image, 32 bits, one pixel larger
+     * than the image.
+     */
+    public synchronized IplImage getIntegral() {
+        IplImage grayImage = getGray();
+        if (grayImage == null) {
+            return null;
+        }
+        if (!integralValid) {
+            integral = checkImage(integral, grayImage.width() + 1, grayImage.height() + 1,
+                    IPL_DEPTH_32S, 1);
+            cvIntegral(grayImage, integral);
+            integralValid = true;
+        }
+        return integral;
+    }
+
+    private static IplImage checkImage(IplImage image, int width, int height, int depth, int channels) {
+        if (image != null
+                && image.width() == width
+                && image.height() == height
+                && image.depth() == depth
+                && image.nChannels() == channels) {
+            return image;
+        }
+        if (image != null) {
+            NativeBufferPool.release(image);
+        }
+        return NativeBufferPool.getImage(width, height, depth, channels);
+    }
+}
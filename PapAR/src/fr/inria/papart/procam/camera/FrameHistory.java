@@ -0,0 +1,144 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Frame slot that keeps the last frames, to find the one captured the
+ * closest to a given time.
+ *
+ * The writer fills the oldest buffer that is not in use by the reader: the
+ * front frame and the frame given by the last getClosest() are never
+ * overwritten, so they are read without copy. The lock only guards the
+ * choice of the buffers, the images are written and read outside of it.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+class FrameHistory extends FrameSlot {
+
+    private final boolean[] published;
+    private final CameraFrame noFrame;
+
+    // Guarded by this.
+    private int writing = 0;
+    private int front = -1;
+    private int picked = -1;
+    private long lastSequence = 0;
+
+    // Owned by the writer.
+    private CameraFrame lastPublished = null;
+
+    /**
+     * @param camera
+     * @param historySize number of recent frames available to getClosest(),
+     * at least.
+     */
+    FrameHistory(Camera camera, int historySize) {
+        // The frame being written and a frame held by the reader in addition.
+        super(camera, historySize + 2);
+        published = new boolean[frames.length];
+        noFrame = new CameraFrame(camera);
+    }
+
+    @Override
+    IplImage getWriteBuffer(IplImage model) {
+        synchronized (this) {
+            writing = oldestFree();
+            published[writing] = false;
+        }
+        return allocate(frames[writing], model);
+    }
+
+    // Unused buffer first, then the oldest one the reader does not hold.
+    private int oldestFree() {
+        int oldest = -1;
+        for (int i = 0; i < frames.length; i++) {
+            if (i == front || i == picked) {
+                continue;
+            }
+            if (!published[i]) {
+                return i;
+            }
+            if (oldest == -1 || frames[i].getSequence() < frames[oldest].getSequence()) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    synchronized long publish(long captureTime) {
+        CameraFrame frame = frames[writing];
+        frame.setCaptured(++lastSequence, captureTime);
+        frame.markStage(CameraFrame.Stage.PUBLISHED);
+        published[writing] = true;
+        lastPublished = frame;
+        return lastSequence;
+    }
+
+    @Override
+    CameraFrame getLastPublished() {
+        return lastPublished;
+    }
+
+    @Override
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    synchronized boolean update() {
+        int newest = -1;
+        for (int i = 0; i < frames.length; i++) {
+            if (published[i] && (newest == -1
+                    || frames[i].getSequence() > frames[newest].getSequence())) {
+                newest = i;
+            }
+        }
+        if (newest == -1 || newest == front) {
+            return false;
+        }
+        front = newest;
+        frames[front].markStage(CameraFrame.Stage.DISPLAYED);
+        return true;
+    }
+
+    @Override
+    CameraFrame getFront() {
+        int current;
+        synchronized (this) {
+            current = front;
+        }
+        return current == -1 ? noFrame : frames[current];
+    }
+
+    /**
+     * Reader side: the recent frame captured the closest to a given time. It
+     * is not modified until the next call.
+     *
+     * @param captureTime time to match, from System.nanoTime().
+     * @return the frame, null if no frame was published yet.
+     */
+    synchronized CameraFrame getClosest(long captureTime) {
+        int closest = -1;
+        for (int i = 0; i < frames.length; i++) {
+            if (!published[i]) {
+                continue;
+            }
+            if (closest == -1
+                    || Math.abs(frames[i].getCaptureTime() - captureTime)
+                    < Math.abs(frames[closest].getCaptureTime() - captureTime)) {
+                closest = i;
+            }
+        }
+        picked = closest;
+        return closest == -1 ? null : frames[closest];
+    }
+}
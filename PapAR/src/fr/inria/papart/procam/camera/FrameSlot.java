@@ -0,0 +1,148 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Lock-free triple buffer between the grabbing thread (single writer) and the
+ * thread reading the images (usually the Processing draw thread).
+ *
+ * The writer fills the back buffer and swaps it with the middle one. The
+ * reader swaps its front buffer with the middle one when a newer frame has
+ * been published. Neither side waits for the other, and a buffer is never
+ * written while it is read.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+class FrameSlot {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int NEW_FRAME = 0x4;
+
+    final CameraFrame[] frames;
+
+    // Index of the middle buffer, flagged with NEW_FRAME when not read yet.
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // Owned by the writer.
+    private int back = 0;
+    private long lastSequence = 0;
+    private CameraFrame lastPublished = null;
+
+    // Owned by the reader.
+    private int front = 2;
+
+    FrameSlot(Camera camera) {
+        this(camera, 3);
+    }
+
+    FrameSlot(Camera camera, int nbFrames) {
+        frames = new CameraFrame[nbFrames];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CameraFrame(camera);
+        }
+    }
+
+    /**
+     * Writer side: get the buffer to fill with the next frame. It is
+     * (re)allocated to match the given image.
+     *
+     * @param model image with the size and type of the next frame.
+     * @return the buffer to write into.
+     */
+    IplImage getWriteBuffer(IplImage model) {
+        return allocate(frames[back], model);
+    }
+
+    /**
+     * (Re)allocate the image of a frame to match a model.
+     *
+     * @param frame
+     * @param model
+     * @return the image of the frame.
+     */
+    static IplImage allocate(CameraFrame frame, IplImage model) {
+        IplImage buffer = frame.image;
+        if (buffer == null
+                || buffer.width() != model.width()
+                || buffer.height() != model.height()
+                || buffer.depth() != model.depth()
+                || buffer.nChannels() != model.nChannels()) {
+
+            if (buffer != null) {
+                buffer.release();
+            }
+            buffer = IplImage.create(model.width(), model.height(),
+                    model.depth(), model.nChannels());
+            frame.image = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Writer side: the write buffer is complete, make it available to the
+     * reader.
+     *
+     * @param captureTime capture time of the frame, from System.nanoTime().
+     * @return the sequence number of the published frame.
+     */
+    long publish(long captureTime) {
+        CameraFrame frame = frames[back];
+        frame.setCaptured(++lastSequence, captureTime);
+        frame.markStage(CameraFrame.Stage.PUBLISHED);
+        lastPublished = frame;
+        back = middle.getAndSet(back | NEW_FRAME) & INDEX_MASK;
+        return lastSequence;
+    }
+
+    /**
+     * Writer side: last published frame. It stays valid until the next frame
+     * is published.
+     *
+     * @return
+     */
+    CameraFrame getLastPublished() {
+        return lastPublished;
+    }
+
+    /**
+     * Writer side: sequence number of the last published frame.
+     *
+     * @return
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Reader side: take the latest complete frame if there is a new one.
+     *
+     * @return true if the front frame changed.
+     */
+    boolean update() {
+        if ((middle.get() & NEW_FRAME) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & INDEX_MASK;
+        frames[front].markStage(CameraFrame.Stage.DISPLAYED);
+        return true;
+    }
+
+    /**
+     * Reader side: current frame, it is not modified until the next update().
+     *
+     * @return the frame, its image is null if no frame was published yet.
+     */
+    CameraFrame getFront() {
+        return frames[front];
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.util.WeakHashMap;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import processing.core.PImage;
+
+/**
+ * Converts the frames of a camera to PImages. It remembers the last frame
+ * converted into each PImage, and does nothing when the same frame is
+ * converted again.
+ *
+ * Color images go through the PixelConverter, depth images through a
+ * DepthColorizer.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class PImageConverter {
+
+    private final WeakHashMap<PImage, Long> convertedSequences = new WeakHashMap<>();
+    private final DepthFrame depthFrame = new DepthFrame();
+    private DepthColorizer depthColorizer = null;
+
+    /**
+     * Convert a frame, unless it is already in the image.
+     *
+     * @param src image of the frame.
+     * @param format format of src.
+     * @param sequence sequence number of the frame.
+     * @param dst image to fill, of the size of src.
+     * @return true if the image was converted.
+     */
+    public synchronized boolean convert(IplImage src, PixelFormat format, long sequence, PImage dst) {
+        if (src == null) {
+            return false;
+        }
+        Long converted = convertedSequences.get(dst);
+        if (converted != null && converted == sequence) {
+            return false;
+        }
+
+        dst.loadPixels();
+        if (format == PixelFormat.DEPTH_KINECT_MM) {
+            getDepthColorizer().toARGB(depthFrame.set(src), dst.pixels);
+        } else {
+            PixelConverter.toARGB(src, format, dst.pixels);
+        }
+        dst.updatePixels();
+
+        convertedSequences.put(dst, sequence);
+        return true;
+    }
+
+    /**
+     * Force the conversion of the next frame into this image.
+     *
+     * @param dst
+     */
+    public synchronized void invalidate(PImage dst) {
+        convertedSequences.remove(dst);
+    }
+
+    /**
+     * @return the colorizer of the depth frames, created with the default
+     * range on the first call.
+     */
+    public synchronized DepthColorizer getDepthColorizer() {
+        if (depthColorizer == null) {
+            depthColorizer = new DepthColorizer();
+        }
+        return depthColorizer;
+    }
+
+    public synchronized void setDepthColorizer(DepthColorizer depthColorizer) {
+        this.depthColorizer = depthColorizer;
+        convertedSequences.clear();
+    }
+}
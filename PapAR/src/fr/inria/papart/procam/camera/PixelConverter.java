@@ -0,0 +1,308 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Converts camera images to the layouts used by Processing.
+ *
+ * The rows are read in bulk (widthStep is respected), converted to packed
+ * ints, and written in bulk. Large images are cut in row stripes converted in
+ * parallel on a shared pool, the calling thread converts the first stripe.
+ *
+ * Two output layouts are supported:
+ * <ul>
+ * <li>RGBA bytes, for texture buffers.</li>
+ * <li>ARGB ints, for the pixels of a PImage.</li>
+ * </ul>
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class PixelConverter {
+
+    /**
+     * Images with fewer rows per thread are converted by the calling thread
+     * only.
+     */
+    public static int MIN_ROWS_PER_STRIPE = 64;
+
+    // Worker threads, one core is left to the draw thread. They are shared
+    // between the tracking of the boards and the conversions.
+    private static final int NB_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    static final int NB_TRACKING_THREADS = Math.max(1, NB_WORKERS / 2);
+    private static final int NB_THREADS = Math.max(1, NB_WORKERS - NB_TRACKING_THREADS);
+
+    private static final ExecutorService threadPool = Executors.newFixedThreadPool(NB_THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PapARt conversion " + (count++));
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Row buffers of each converting thread.
+    private static final ThreadLocal<RowBuffers> rowBuffers = new ThreadLocal<RowBuffers>() {
+        @Override
+        protected RowBuffers initialValue() {
+            return new RowBuffers();
+        }
+    };
+
+    static class RowBuffers {
+
+        byte[] in = new byte[0];
+        short[] shorts = new short[0];
+        int[] out = new int[0];
+
+        void ensure(int inSize, int outSize) {
+            if (in.length < inSize) {
+                in = new byte[inSize];
+            }
+            if (out.length < outSize) {
+                out = new int[outSize];
+            }
+        }
+
+        short[] ensureShorts(int size) {
+            if (shorts.length < size) {
+                shorts = new short[size];
+            }
+            return shorts;
+        }
+    }
+
+    /**
+     * Work on a range of rows [startRow, endRow[.
+     */
+    public interface RowTask {
+
+        void run(int startRow, int endRow);
+    }
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Convert an image to RGBA bytes, the layout of the RGBA textures.
+     *
+     * @param src 8 bits image.
+     * @param format format of src.
+     * @param rgba direct buffer of width * height * 4 bytes. Its position is
+     * not changed.
+     */
+    public static void toRGBA(IplImage src, PixelFormat format, ByteBuffer rgba) {
+        // Little endian ints 0xAABBGGRR are R, G, B, A in memory.
+        IntBuffer out = rgba.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        convert(src, format, out, null, true, false);
+    }
+
+    /**
+     * Convert an image to ARGB ints, the layout of PImage.pixels.
+     *
+     * @param src 8 bits image.
+     * @param format format of src.
+     * @param argb array of at least width * height pixels.
+     */
+    public static void toARGB(IplImage src, PixelFormat format, int[] argb) {
+        toARGB(src, format, argb, false);
+    }
+
+    /**
+     * Convert an image to ARGB ints, the layout of PImage.pixels.
+     *
+     * @param src 8 bits image.
+     * @param format format of src.
+     * @param argb array of at least width * height pixels.
+     * @param opaque ignore the alpha channel of the 4 channels formats, the
+     * pixels are opaque.
+     */
+    public static void toARGB(IplImage src, PixelFormat format, int[] argb, boolean opaque) {
+        convert(src, format, null, argb, false, opaque);
+    }
+
+    private static void convert(IplImage src, PixelFormat format,
+            IntBuffer outBuffer, int[] outArray, boolean rgbaBytes, boolean opaque) {
+        checkFormat(src, format);
+        ByteBuffer in = src.getByteBuffer();
+        forEachStripe(src.height(),
+                (start, end) -> convertRows(src, format, in, outBuffer, outArray, rgbaBytes, opaque, start, end));
+    }
+
+    /**
+     * Run a task on stripes of rows, in parallel for large images. Returns
+     * when all the rows are done.
+     *
+     * @param height number of rows.
+     * @param task
+     */
+    public static void forEachStripe(int height, RowTask task) {
+        int nbStripes = Math.max(1, Math.min(NB_THREADS + 1, height / MIN_ROWS_PER_STRIPE));
+        if (nbStripes == 1) {
+            task.run(0, height);
+            return;
+        }
+
+        Future<?>[] stripes = new Future<?>[nbStripes - 1];
+        int rowsPerStripe = (height + nbStripes - 1) / nbStripes;
+        for (int i = 1; i < nbStripes; i++) {
+            final int start = i * rowsPerStripe;
+            final int end = Math.min(height, start + rowsPerStripe);
+            stripes[i - 1] = threadPool.submit(() -> task.run(start, end));
+        }
+        task.run(0, rowsPerStripe);
+
+        try {
+            for (Future<?> stripe : stripes) {
+                stripe.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("PixelConverter: conversion error " + e);
+        }
+    }
+
+    static RowBuffers getRowBuffers() {
+        return rowBuffers.get();
+    }
+
+    private static void checkFormat(IplImage src, PixelFormat format) {
+        int channels;
+        switch (format) {
+            case RGB:
+            case BGR:
+                channels = 3;
+                break;
+            case ARGB:
+            case RGBA:
+                channels = 4;
+                break;
+            case GRAY:
+                channels = 1;
+                break;
+            default:
+                throw new RuntimeException("PixelConverter: unsupported format " + format);
+        }
+        if (src.nChannels() != channels) {
+            throw new RuntimeException("PixelConverter: " + format + " image with "
+                    + src.nChannels() + " channels.");
+        }
+    }
+
+    private static void convertRows(IplImage src, PixelFormat format, ByteBuffer in,
+            IntBuffer outBuffer, int[] outArray, boolean rgbaBytes, boolean opaque,
+            int startRow, int endRow) {
+        int width = src.width();
+        int widthStep = src.widthStep();
+        int rowSize = width * src.nChannels();
+
+        RowBuffers buffers = getRowBuffers();
+        buffers.ensure(rowSize, outArray == null ? width : 0);
+        byte[] inRow = buffers.in;
+
+        // Each stripe works on its own view of the buffers.
+        ByteBuffer input = in.duplicate();
+        IntBuffer output = outBuffer == null ? null : outBuffer.duplicate();
+
+        for (int y = startRow; y < endRow; y++) {
+            input.position(y * widthStep);
+            input.get(inRow, 0, rowSize);
+
+            int[] outRow = outArray == null ? buffers.out : outArray;
+            int outOffset = outArray == null ? 0 : y * width;
+            convertRow(inRow, outRow, outOffset, width, format, rgbaBytes, opaque);
+
+            if (output != null) {
+                output.position(y * width);
+                output.put(outRow, 0, width);
+            }
+        }
+    }
+
+    /**
+     * Packs one row. The output is 0xAARRGGBB, or 0xAABBGGRR when rgbaBytes
+     * is set. The alpha is 0xFF for 3 channels formats or when opaque is set.
+     */
+    private static void convertRow(byte[] in, int[] out, int offset, int width,
+            PixelFormat format, boolean rgbaBytes, boolean opaque) {
+
+        // Byte index of the channel packed in the high and low color bytes.
+        int high, low, step, alpha;
+        switch (format) {
+            case RGB:
+                high = 0;
+                low = 2;
+                step = 3;
+                alpha = -1;
+                break;
+            case BGR:
+                high = 2;
+                low = 0;
+                step = 3;
+                alpha = -1;
+                break;
+            case RGBA:
+                high = 0;
+                low = 2;
+                step = 4;
+                alpha = 3;
+                break;
+            case ARGB:
+                high = 1;
+                low = 3;
+                step = 4;
+                alpha = 0;
+                break;
+            default:
+                // GRAY
+                for (int x = 0; x < width; x++) {
+                    int v = in[x] & 0xFF;
+                    out[offset + x] = 0xFF000000 | v << 16 | v << 8 | v;
+                }
+                return;
+        }
+
+        if (rgbaBytes) {
+            int tmp = high;
+            high = low;
+            low = tmp;
+        }
+        int green = (high + low) / 2;
+        if (opaque) {
+            alpha = -1;
+        }
+
+        int i = 0;
+        if (alpha < 0) {
+            for (int x = 0; x < width; x++, i += step) {
+                out[offset + x] = 0xFF000000
+                        | (in[i + high] & 0xFF) << 16
+                        | (in[i + green] & 0xFF) << 8
+                        | (in[i + low] & 0xFF);
+            }
+        } else {
+            for (int x = 0; x < width; x++, i += step) {
+                out[offset + x] = (in[i + alpha] & 0xFF) << 24
+                        | (in[i + high] & 0xFF) << 16
+                        | (in[i + green] & 0xFF) << 8
+                        | (in[i + low] & 0xFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.cvSetData;
+
+/**
+ * Reads the frames written by a RawFrameRecorder. The images wrap the mapped
+ * file directly, without copy.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class RawFrameReader {
+
+    private static final long WINDOW_SIZE = 1024L * 1024 * 1024;
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ArrayList<FrameInfo> frames = new ArrayList<>();
+
+    // Mapped part of the data file.
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+
+    private IplImage header = null;
+
+    private static class FrameInfo {
+
+        long offset, timestamp, sequence;
+        int format, width, height, depth, channels, widthStep, imageSize;
+    }
+
+    public RawFrameReader(String fileName) throws IOException {
+        readIndex(fileName + RawFrameRecorder.INDEX_EXTENSION);
+        dataFile = new RandomAccessFile(fileName, "r");
+        channel = dataFile.getChannel();
+        fileSize = channel.size();
+    }
+
+    private void readIndex(String indexName) throws IOException {
+        try (DataInputStream index = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexName)))) {
+
+            if (index.readInt() != RawFrameRecorder.MAGIC) {
+                throw new IOException("Not a raw recording index: " + indexName);
+            }
+            int version = index.readInt();
+            if (version != RawFrameRecorder.VERSION) {
+                throw new IOException("Unsupported raw recording version " + version);
+            }
+
+            while (true) {
+                FrameInfo info = new FrameInfo();
+                try {
+                    info.offset = index.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                info.timestamp = index.readLong();
+                info.sequence = index.readLong();
+                info.format = index.readInt();
+                info.width = index.readInt();
+                info.height = index.readInt();
+                info.depth = index.readInt();
+                info.channels = index.readInt();
+                info.widthStep = index.readInt();
+                info.imageSize = index.readInt();
+                frames.add(info);
+            }
+        } catch (EOFException e) {
+            // Recording interrupted in the middle of an entry.
+            System.err.println("RawFrameReader: truncated index " + indexName);
+        }
+    }
+
+    public int getNbFrames() {
+        return frames.size();
+    }
+
+    /**
+     * Get a frame of the recording. The image wraps the mapped file, it must
+     * not be modified and stays valid until the next call.
+     *
+     * @param frameNumber
+     * @return the image, or null if the frame is not in the data file.
+     * @throws IOException
+     */
+    public IplImage getFrame(int frameNumber) throws IOException {
+        FrameInfo info = frames.get(frameNumber);
+        if (info.offset + info.imageSize > fileSize) {
+            return null;
+        }
+
+        if (window == null
+                || info.offset < windowStart
+                || info.offset + info.imageSize > windowStart + window.capacity()) {
+            windowStart = info.offset;
+            long size = Math.min(Math.max(WINDOW_SIZE, info.imageSize), fileSize - windowStart);
+            // Private mapping: an accidental write does not reach the file.
+            window = channel.map(FileChannel.MapMode.PRIVATE, windowStart, size);
+        }
+
+        ByteBuffer data = window.duplicate();
+        data.position((int) (info.offset - windowStart));
+        data.limit(data.position() + info.imageSize);
+
+        if (header == null
+                || header.width() != info.width
+                || header.height() != info.height
+                || header.depth() != info.depth
+                || header.nChannels() != info.channels) {
+            header = IplImage.createHeader(info.width, info.height, info.depth, info.channels);
+        }
+        cvSetData(header, new BytePointer(data.slice()), info.widthStep);
+        return header;
+    }
+
+    /**
+     * @param frameNumber
+     * @return capture time of the frame, from System.nanoTime().
+     */
+    public long getTimestamp(int frameNumber) {
+        return frames.get(frameNumber).timestamp;
+    }
+
+    public long getSequence(int frameNumber) {
+        return frames.get(frameNumber).sequence;
+    }
+
+    /**
+     * @param frameNumber
+     * @return the pixel format, or null if it was not recorded.
+     */
+    public PixelFormat getPixelFormat(int frameNumber) {
+        int format = frames.get(frameNumber).format;
+        return format < 0 ? null : PixelFormat.values()[format];
+    }
+
+    public void close() {
+        window = null;
+        try {
+            dataFile.close();
+        } catch (IOException e) {
+            System.err.println("RawFrameReader: error while closing " + e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Records the frames of a camera without compression, to replay them with a
+ * RawFrameReader.
+ *
+ * The images are appended to a memory-mapped data file, the description of
+ * each frame is appended to an index file (data file name + ".index"): data
+ * offset, capture time, sequence number, pixel format, size and layout. The
+ * index is flushed after each frame, a crash loses at most the last one.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class RawFrameRecorder {
+
+    static final int MAGIC = 0x50524157; // "PRAW"
+    static final int VERSION = 1;
+    static final String INDEX_EXTENSION = ".index";
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel channel;
+    private final DataOutputStream index;
+
+    private MappedByteBuffer chunk = null;
+    private long chunkStart = 0;
+    private long written = 0;
+    private int nbFrames = 0;
+    private boolean closed = false;
+
+    public RawFrameRecorder(String fileName) throws IOException {
+        dataFile = new RandomAccessFile(fileName, "rw");
+        dataFile.setLength(0);
+        channel = dataFile.getChannel();
+
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName + INDEX_EXTENSION)));
+        index.writeInt(MAGIC);
+        index.writeInt(VERSION);
+    }
+
+    /**
+     * Append a frame to the recording.
+     *
+     * @param img frame to record.
+     * @param sequence sequence number of the frame.
+     * @param format pixel format of the frame.
+     * @param captureTime capture time of the frame, from System.nanoTime().
+     */
+    public synchronized void record(IplImage img, long sequence, PixelFormat format, long captureTime) {
+        if (closed) {
+            return;
+        }
+        int imageSize = img.imageSize();
+
+        try {
+            ByteBuffer target = getSpace(imageSize);
+            ByteBuffer source = img.getByteBuffer();
+            source.limit(imageSize);
+            target.put(source);
+
+            index.writeLong(written);
+            index.writeLong(captureTime);
+            index.writeLong(sequence);
+            index.writeInt(format == null ? -1 : format.ordinal());
+            index.writeInt(img.width());
+            index.writeInt(img.height());
+            index.writeInt(img.depth());
+            index.writeInt(img.nChannels());
+            index.writeInt(img.widthStep());
+            index.writeInt(imageSize);
+            index.flush();
+
+            written += imageSize;
+            nbFrames++;
+        } catch (IOException e) {
+            System.err.println("RawFrameRecorder: cannot write the frame " + sequence + " " + e);
+            close();
+        }
+    }
+
+    // Frames never cross the end of a chunk.
+    private ByteBuffer getSpace(int size) throws IOException {
+        if (chunk == null || written + size > chunkStart + chunk.capacity()) {
+            if (chunk != null) {
+                chunk.force();
+                unmap(chunk);
+            }
+            chunkStart = written;
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart,
+                    Math.max(CHUNK_SIZE, size));
+        }
+        chunk.position((int) (written - chunkStart));
+        return chunk;
+    }
+
+    // Release the mapping now instead of at its garbage collection.
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            try {
+                // Java 9 and later.
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException java8) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("RawFrameRecorder: cannot unmap the data file " + e);
+        }
+    }
+
+    public synchronized int getNbFrames() {
+        return nbFrames;
+    }
+
+    /**
+     * Write the end of the recording. The data file is cut to the size of the
+     * recorded frames.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            index.close();
+            if (chunk != null) {
+                chunk.force();
+                // A mapped file cannot be truncated on Windows.
+                unmap(chunk);
+                chunk = null;
+            }
+            channel.truncate(written);
+            dataFile.close();
+        } catch (IOException e) {
+            System.err.println("RawFrameRecorder: error while closing " + e);
+        }
+    }
+
+}
@@ -9,11 +9,13 @@
 package fr.inria.papart.procam.camera;
 
 import fr.inria.papart.procam.MarkerBoard;
+import fr.inria.papart.procam.NativeBufferPool;
 import fr.inria.papart.procam.PaperScreen;
 import fr.inria.papart.procam.Utils;
 import fr.inria.papart.procam.camera.Camera;
 import org.bytedeco.javacpp.opencv_core.CvMat;
 import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.CV_32FC1;
 import processing.core.PApplet;
 import processing.core.PImage;
 import processing.core.PMatrix3D;
@@ -30,8 +32,13 @@ public class TrackedView {
 
     // private data
     private final PVector[] corner3DPos = new PVector[4];
+    private final PMatrix3D cornerPos = new PMatrix3D();
     private final PVector[] screenPixelCoordinates = new PVector[4];
     private final PVector[] imagePixelCoordinates = new PVector[4];
+    private final PVector[] halfPixelCoordinates = new PVector[4];
+    // Corners projected together: x, y, z of each corner, then x, y.
+    private final float[] cornersXYZ = new float[12];
+    private final float[] cornersUV = new float[8];
 
     // external information
     private MarkerBoard board = MarkerBoard.INVALID_MARKERBOARD;
@@ -40,11 +47,13 @@ public class TrackedView {
     private boolean useBoardLocation = false;
     private boolean usePaperLocation = false;
     private boolean useManualConrers = false;
+    private boolean useHalfResolution = false;
 
     private PVector bottomLeftCorner = new PVector(0, 0), captureSizeMM = new PVector(100, 100);
     private int imageWidthPx = 128, imageHeightPx = 128;
 
     // temporary variables
+    private final CvMat homography = CvMat.create(3, 3, CV_32FC1);
     private IplImage mainImage;
     private Camera camera;
 
@@ -87,6 +96,10 @@ public class TrackedView {
 
     public void init() {
         extractedImage = new PImage(imageWidthPx, imageHeightPx, PApplet.RGB);
+        if (extractedIplImage != null) {
+            NativeBufferPool.release(extractedIplImage);
+            extractedIplImage = null;
+        }
 
         initiateImageCoordinates();
     }
@@ -94,6 +107,8 @@ public class TrackedView {
     private void allocateMemory() {
         for (int i = 0; i < 4; i++) {
             corner3DPos[i] = new PVector();
+            screenPixelCoordinates[i] = new PVector();
+            halfPixelCoordinates[i] = new PVector();
         }
     }
 
@@ -109,35 +124,61 @@ public class TrackedView {
             System.err.println("You should init the TrackedView before getting the view.");
             return null;
         }
-        if (camera.getIplImage() == null) {
+        // Same frame for the whole extraction.
+        this.mainImage = camera.getIplImage();
+        if (mainImage == null) {
             return null;
         }
-
-        this.mainImage = camera.getIplImage();
         this.camera = camera;
 
-        CvMat homography = computeHomography();
-        Utils.remapImage(homography, camera.getIplImage(), extractedIplImage, extractedImage);
+        IplImage source = computeHomography();
+        Utils.remapImage(homography, source, extractedIplImage, extractedImage);
         return extractedImage;
     }
 
     public IplImage getIplViewOf(Camera camera) {
-        if (camera.getIplImage() == null) {
+        this.mainImage = camera.getIplImage();
+        if (mainImage == null) {
             return null;
         }
-
-        this.mainImage = camera.getIplImage();
         this.camera = camera;
-        CvMat homography = computeHomography();
-        Utils.remapImageIpl(homography, camera.getIplImage(), extractedIplImage);
+        IplImage source = computeHomography();
+        Utils.remapImageIpl(homography, source, extractedIplImage);
         return extractedIplImage;
     }
 
-    private CvMat computeHomography() {
+    /**
+     * Compute the homography from the camera image to the view.
+     *
+     * @return the image to warp: the frame, or its half resolution image
+     * when the view is at least twice smaller than the captured zone.
+     */
+    private IplImage computeHomography() {
         checkMemory();
         computeCorners();
-        CvMat homography = Utils.createHomography(screenPixelCoordinates, imagePixelCoordinates);
-        return homography;
+
+        if (useHalfResolution && isDownscaledTwice()) {
+            IplImage half = camera.getCurrentFrame().getDerivedImages().getHalfResolution();
+            if (half != null) {
+                for (int i = 0; i < 4; i++) {
+                    halfPixelCoordinates[i].set(screenPixelCoordinates[i].x / 2,
+                            screenPixelCoordinates[i].y / 2);
+                }
+                Utils.createHomography(halfPixelCoordinates, imagePixelCoordinates, homography);
+                return half;
+            }
+        }
+        Utils.createHomography(screenPixelCoordinates, imagePixelCoordinates, homography);
+        return mainImage;
+    }
+
+    // Corners: bottom left, bottom right, top right, top left.
+    private boolean isDownscaledTwice() {
+        float width = Math.min(screenPixelCoordinates[0].dist(screenPixelCoordinates[1]),
+                screenPixelCoordinates[3].dist(screenPixelCoordinates[2]));
+        float height = Math.min(screenPixelCoordinates[1].dist(screenPixelCoordinates[2]),
+                screenPixelCoordinates[0].dist(screenPixelCoordinates[3]));
+        return width >= 2 * imageWidthPx && height >= 2 * imageHeightPx;
     }
 
     private void checkMemory() {
@@ -155,20 +196,18 @@ public class TrackedView {
         }
         
         if (usePaperLocation) {
-            pos = paperScreen.getLocation();
+            pos = paperScreen.getLocation(cornerPos);
         }
 
         if (useBoardLocation) {
-            pos = board.getTransfoMat(camera).get();
+            pos = board.getTransfoMat(camera, cornerPos);
         }
 
         if (pos == null) {
             throw new RuntimeException("ERROR in TrackedView, report this.");
         }
 
-        PMatrix3D tmp = new PMatrix3D();
-
-        tmp.apply(pos);
+        PMatrix3D tmp = pos;
 
         // bottom left
         tmp.translate(bottomLeftCorner.x, bottomLeftCorner.y);
@@ -194,11 +233,32 @@ public class TrackedView {
         corner3DPos[3].y = tmp.m13;
         corner3DPos[3].z = tmp.m23;
 
+        // The corners are distorted only to be found in a raw frame.
+        boolean distort = !camera.isFrameUndistorted() && camera.pdp.handleDistorsions();
+        for (int i = 0; i < 4; i++) {
+            cornersXYZ[i * 3] = corner3DPos[i].x;
+            cornersXYZ[i * 3 + 1] = corner3DPos[i].y;
+            cornersXYZ[i * 3 + 2] = corner3DPos[i].z;
+        }
+        camera.pdp.worldToPixels(cornersXYZ, cornersUV, 4, distort);
         for (int i = 0; i < 4; i++) {
-            screenPixelCoordinates[i] = camera.pdp.worldToPixel(corner3DPos[i], true);
+            screenPixelCoordinates[i].set(cornersUV[i * 2], cornersUV[i * 2 + 1]);
         }
     }
 
+    /**
+     * Warp the half resolution image of the frame, shared with the other
+     * views, when the view is at least twice smaller than the captured zone.
+     * False by default, the result can be blurrier.
+     *
+     * @param useHalfResolution
+     * @return this.
+     */
+    public TrackedView setUseHalfResolution(boolean useHalfResolution) {
+        this.useHalfResolution = useHalfResolution;
+        return this;
+    }
+
     public MarkerBoard getBoard() {
         return this.board;
     }
@@ -0,0 +1,222 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.MarkerBoard;
+import fr.inria.papart.tracking.PoseSnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
+
+/**
+ * Runs the marker detection of the boards tracked by a camera.
+ *
+ * Only one frame is tracked at a time: while the boards are busy, new frames
+ * are dropped instead of queued. The tracked frame is copied, so the grabbing
+ * thread can overwrite its own buffers. The boards share the derived images
+ * (gray...) of the tracked frame. The poses found in a frame are staged, and
+ * published once all the boards have been updated with it. The map of
+ * getTrackedPoses() holds the poses of a single frame, the boards themselves
+ * are published one after the other.
+ *
+ * The tracking threads are shared by all the cameras.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+class TrackingScheduler {
+
+    private static final ExecutorService threadPool = Executors.newFixedThreadPool(
+            PixelConverter.NB_TRACKING_THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PapARt tracking " + (count++));
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Busy until the poses of the frame are published.
+    private final AtomicInteger pendingTasks = new AtomicInteger(0);
+    private final AtomicInteger remainingBoards = new AtomicInteger(0);
+    private final ArrayList<MarkerBoard> boards = new ArrayList<>();
+    private PoseSnapshot[] stagedPoses = new PoseSnapshot[0];
+    private volatile Map<MarkerBoard, PoseSnapshot> trackedPoses = Collections.emptyMap();
+    // Published alternately, the other one is filled.
+    private final IdentityHashMap<MarkerBoard, PoseSnapshot>[] poseMaps = new IdentityHashMap[2];
+    private final Map<MarkerBoard, PoseSnapshot>[] poseViews = new Map[2];
+    private int nextPoseMap = 0;
+
+    // Written only when no task is pending.
+    private final CameraFrame trackedFrame;
+    private IplImage colorImage = null;
+
+    private volatile long trackedSequence = 0;
+    private volatile long trackingLatency = -1;
+    private volatile long droppedFrames = 0;
+
+    TrackingScheduler(Camera camera) {
+        this.trackedFrame = new CameraFrame(camera);
+        for (int i = 0; i < poseMaps.length; i++) {
+            poseMaps[i] = new IdentityHashMap<>();
+            poseViews[i] = Collections.unmodifiableMap(poseMaps[i]);
+        }
+    }
+
+    /**
+     * Starts the tracking of a frame, unless the previous one is still
+     * tracked.
+     *
+     * @param frame frame to track, it is copied.
+     * @param sheets boards to update, they are copied.
+     * @return false if the frame was dropped.
+     */
+    boolean submit(CameraFrame frame, List<MarkerBoard> sheets) {
+        if (pendingTasks.get() != 0) {
+            droppedFrames++;
+            return false;
+        }
+
+        boards.clear();
+        boards.addAll(sheets);
+        if (boards.isEmpty()) {
+            return false;
+        }
+
+        copyImage(frame.getImage());
+        trackedFrame.copyInfo(frame);
+        trackedFrame.image = colorImage;
+        trackedFrame.markStage(CameraFrame.Stage.TRACKING_STARTED);
+
+        if (stagedPoses.length != boards.size()) {
+            stagedPoses = new PoseSnapshot[boards.size()];
+        }
+        pendingTasks.set(1);
+        remainingBoards.set(boards.size());
+        for (int i = 0; i < boards.size(); i++) {
+            threadPool.execute(new BoardTask(i));
+        }
+        return true;
+    }
+
+    private void copyImage(IplImage image) {
+        if (colorImage == null
+                || colorImage.width() != image.width()
+                || colorImage.height() != image.height()
+                || colorImage.depth() != image.depth()
+                || colorImage.nChannels() != image.nChannels()) {
+
+            if (colorImage != null) {
+                colorImage.release();
+            }
+            colorImage = IplImage.create(image.width(), image.height(),
+                    image.depth(), image.nChannels());
+        }
+        cvCopy(image, colorImage);
+    }
+
+    private class BoardTask implements Runnable {
+
+        private final int index;
+
+        public BoardTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            MarkerBoard markerBoard = boards.get(index);
+            try {
+                stagedPoses[index] = markerBoard.updateStagedPosition(trackedFrame);
+            } catch (Exception e) {
+                System.err.println("Tracking error on " + markerBoard + " : " + e);
+                stagedPoses[index] = markerBoard.getPose(trackedFrame.getCamera());
+            } finally {
+                if (remainingBoards.decrementAndGet() == 0) {
+                    publishPoses();
+                }
+            }
+        }
+    }
+
+    // Called by the last board task, before a new frame can be submitted.
+    private void publishPoses() {
+        Camera camera = trackedFrame.getCamera();
+        IdentityHashMap<MarkerBoard, PoseSnapshot> poses = poseMaps[nextPoseMap];
+        poses.clear();
+        for (int i = 0; i < boards.size(); i++) {
+            poses.put(boards.get(i), stagedPoses[i]);
+        }
+        trackedPoses = poseViews[nextPoseMap];
+        nextPoseMap = 1 - nextPoseMap;
+        for (int i = 0; i < boards.size(); i++) {
+            boards.get(i).publishPose(camera, stagedPoses[i]);
+            stagedPoses[i] = null;
+        }
+
+        trackedFrame.markStage(CameraFrame.Stage.TRACKING_DONE);
+        trackingLatency = trackedFrame.getLatency(CameraFrame.Stage.TRACKING_DONE);
+        trackedSequence = trackedFrame.getSequence();
+        pendingTasks.set(0);
+    }
+
+    /**
+     * Poses of the boards in the last frame tracked by all the boards, a
+     * consistent set. The map is reused two frames later: read it at once,
+     * copy it to keep it.
+     *
+     * @return an unmodifiable map, empty if no frame was tracked yet.
+     */
+    Map<MarkerBoard, PoseSnapshot> getTrackedPoses() {
+        return trackedPoses;
+    }
+
+    /**
+     * Sequence number of the last frame tracked by all the boards.
+     *
+     * @return 0 if no frame was tracked yet.
+     */
+    long getTrackedSequence() {
+        return trackedSequence;
+    }
+
+    /**
+     * Time between the capture and the end of the tracking of the last
+     * tracked frame.
+     *
+     * @return nanoseconds, -1 if no frame was tracked yet.
+     */
+    long getTrackingLatency() {
+        return trackingLatency;
+    }
+
+    /**
+     * Number of frames not tracked because the previous one was still
+     * processed.
+     *
+     * @return
+     */
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    boolean isBusy() {
+        return pendingTasks.get() != 0;
+    }
+
+}
@@ -9,9 +9,11 @@
 package fr.inria.papart.procam.display;
 
 import fr.inria.papart.procam.DrawUtils;
+import fr.inria.papart.procam.DistortionGrid;
 import processing.opengl.PGraphicsOpenGL;
 import org.bytedeco.javacv.ProjectiveDevice;
 import fr.inria.papart.procam.camera.Camera;
+import fr.inria.papart.procam.camera.CameraFrame;
 import fr.inria.papart.procam.HasExtrinsics;
 import fr.inria.papart.procam.ProjectiveDeviceP;
 import fr.inria.papart.procam.Screen;
@@ -50,6 +52,9 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
 
     private boolean distort = false;
 
+    private boolean useFrustumCulling = true;
+    private final PMatrix3D cullingPos = new PMatrix3D();
+
     public ARDisplay(PApplet parent, String calibrationYAML) {
         super(parent);
         loadCalibration(calibrationYAML);
@@ -148,8 +153,9 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
         drawScreensOver();
         parent.noStroke();
 
-        if (camera != null && camera.getPImage() != null) {
-            parent.image(camera.getPImage(), 0, 0, this.drawingSizeX, this.drawingSizeY);
+        PImage cameraImage = camera == null ? null : camera.getPImage();
+        if (cameraImage != null) {
+            parent.image(cameraImage, 0, 0, this.drawingSizeX, this.drawingSizeY);
 //            ((PGraphicsOpenGL) (parent.g)).image(camera.getPImage(), 0, 0, frameWidth, frameHeight);
         }
 
@@ -157,6 +163,10 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
         DrawUtils.drawImage((PGraphicsOpenGL) parent.g,
                 this.render(),
                 0, 0, this.drawingSizeX, this.drawingSizeY);
+
+        if (camera != null) {
+            camera.getCurrentFrame().markStage(CameraFrame.Stage.RENDERED);
+        }
     }
 
     /**
@@ -181,14 +191,15 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
     @Override
     public void renderScreens() {
 
-        for (Screen screen : screens) {
-            if (!screen.isDrawing()) {
+        for (int i = 0; i < screens.size(); i++) {
+            Screen screen = screens.get(i);
+            if (!screen.isDrawing() || !screen.isVisible()) {
                 continue;
             }
             this.graphics.pushMatrix();
 
             // Goto to the screen position
-            this.graphics.applyMatrix(screen.getLocation());
+            this.graphics.applyMatrix(screen.getLocation(screenPos));
             // Draw the screen image
 
             // If it is openGL renderer, use the standard  (0, 0) is bottom left
@@ -248,6 +259,18 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
         return extrinsics.get();
     }
 
+    /**
+     * Get the extrinsics without allocation.
+     *
+     * @param out set to the extrinsics.
+     * @return out
+     */
+    public PMatrix3D getExtrinsics(PMatrix3D out) {
+        assert (hasExtrinsics());
+        out.set(extrinsics);
+        return out;
+    }
+
     /**
      * @return
      */
@@ -279,6 +302,8 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
         float mag = 30;
 
         parent.colorMode(PApplet.RGB, 1.0f);
+        DistortionGrid undistortGrid = projectiveDeviceP.getUndistortionGrid();
+        float[] out = new float[2];
         int k = 0;
         for (int y = 0; y < mapImg.height; y++) {
             for (int x = 0; x < mapImg.width; x++) {
@@ -287,15 +312,15 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
                 int x1 = (int) ((float) x / quality);
                 int y1 = (int) ((float) y / quality);
 
-                double[] out = projectiveDevice.undistort(x1, y1);
+                undistortGrid.map(x1, y1, out, 0);
 //                double[] out = proj.distort(x, y);
 
                 // get back at the rendering resolution
                 out[0] *= quality;
                 out[1] *= quality;
 
-                float r = ((float) out[0] - x) / mag + 0.5f;/// frameWidth; 
-                float g = ((float) out[1] - y) / mag + 0.5f;// / frameHeight; 
+                float r = (out[0] - x) / mag + 0.5f;/// frameWidth; 
+                float g = (out[1] - y) / mag + 0.5f;// / frameHeight; 
 
                 mapImg.pixels[k++] = parent.color(r, g, parent.random(1f));
             }
@@ -354,11 +379,11 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
 
     @Override
     public PGraphicsOpenGL beginDrawOnScreen(Screen screen) {
-        PMatrix3D screenPos = screen.getLocation();
+        screen.getLocation(screenPos);
 
         this.beginDraw();
         if (this.hasExtrinsics()) {
-            screenPos.preApply(getExtrinsics());
+            screenPos.preApply(extrinsics);
         }
         this.graphics.applyMatrix(screenPos);
         return this.graphics;
@@ -480,6 +505,74 @@ public class ARDisplay extends BaseDisplay implements HasExtrinsics {
         return out;
     }
 
+    /**
+     * Frustum culling: a screen is not visible when all the corners of its
+     * bounding box are out of the same plane of the frustum (near, far and
+     * the four borders of the image).
+     *
+     * @param screen
+     * @return true if the screen can be seen.
+     */
+    @Override
+    public boolean isVisible(Screen screen) {
+        if (!useFrustumCulling || intrinsics == null) {
+            return true;
+        }
+
+        PMatrix3D pos = screen.getLocation(cullingPos);
+        if (this.hasExtrinsics()) {
+            pos.preApply(extrinsics);
+        }
+
+        PVector size = screen.getSize();
+        float height = screen.getBoundsHeight();
+        int outside = 0x3f;
+        for (int i = 0; i < 8; i++) {
+            float x = (i & 1) == 0 ? 0 : size.x;
+            float y = (i & 2) == 0 ? 0 : size.y;
+            float z = (i & 4) == 0 ? -height : height;
+            outside &= outCode(pos.multX(x, y, z), pos.multY(x, y, z), pos.multZ(x, y, z));
+            if (outside == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // One bit per frustum plane the point is out of.
+    private int outCode(float x, float y, float z) {
+        float fx = intrinsics.m00, fy = intrinsics.m11;
+        float cx = intrinsics.m02, cy = intrinsics.m12;
+        int code = 0;
+        if (z < zNear) {
+            code |= 1;
+        }
+        if (z > zFar) {
+            code |= 2;
+        }
+        if (fx * x + cx * z < 0) {
+            code |= 4;
+        }
+        if (fx * x + (cx - frameWidth) * z > 0) {
+            code |= 8;
+        }
+        if (fy * y + cy * z < 0) {
+            code |= 16;
+        }
+        if (fy * y + (cy - frameHeight) * z > 0) {
+            code |= 32;
+        }
+        return code;
+    }
+
+    public boolean isFrustumCulling() {
+        return useFrustumCulling;
+    }
+
+    public void setFrustumCulling(boolean culling) {
+        this.useFrustumCulling = culling;
+    }
+
     public void setZNearFar(float near, float far) {
         this.zNear = near;
         this.zFar = far;
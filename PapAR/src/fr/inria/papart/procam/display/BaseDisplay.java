@@ -8,6 +8,7 @@
  */
 package fr.inria.papart.procam.display;
 
+import fr.inria.papart.procam.PaperScreen;
 import fr.inria.papart.procam.Papart;
 import fr.inria.papart.procam.Screen;
 import java.util.ArrayList;
@@ -37,6 +38,9 @@ public class BaseDisplay {
     protected int drawingSizeX = DEFAULT_SIZE, drawingSizeY = DEFAULT_SIZE;
     protected float quality = 1;
 
+    // Location of the screen being drawn, reused each frame.
+    protected final PMatrix3D screenPos = new PMatrix3D();
+
     public BaseDisplay() {
         setParent(Papart.getPapart().getApplet());
     }
@@ -118,7 +122,7 @@ public class BaseDisplay {
 
     public PGraphicsOpenGL beginDrawOnScreen(Screen screen) {
         // Get the markerboard viewed by the camera
-        PMatrix3D screenPos = screen.getLocation();
+        screen.getLocation(screenPos);
         this.beginDraw();
         this.graphics.applyMatrix(screenPos);
         return this.graphics;
@@ -162,12 +166,13 @@ public class BaseDisplay {
     }
 
     public void renderScreens() {
-        for (Screen screen : screens) {
-            if (!screen.isDrawing()) {
+        for (int i = 0; i < screens.size(); i++) {
+            Screen screen = screens.get(i);
+            if (!screen.isDrawing() || !screen.isVisible()) {
                 continue;
             }
             this.graphics.pushMatrix();
-            this.graphics.applyMatrix(screen.getLocation());
+            this.graphics.applyMatrix(screen.getLocation(screenPos));
             this.graphics.image(screen.getTexture(), 0, 0, screen.getSize().x, screen.getSize().y);
             this.graphics.popMatrix();
         }
@@ -229,16 +234,38 @@ public class BaseDisplay {
         this.drawingSizeY = h;
     }
 
+    /**
+     * Visibility test of a screen, done once per frame before its drawing.
+     * There is no culling in the base display.
+     *
+     * @param screen
+     * @return true if the screen can be seen.
+     */
+    public boolean isVisible(Screen screen) {
+        return true;
+    }
+
     public void addScreen(Screen s) {
         screens.add(s);
     }
 
+    /**
+     * @param screen
+     * @param x normalized x coordinate in the display.
+     * @param y normalized y coordinate in the display.
+     * @return the pointer in the screen, PaperScreen.INVALID_VECTOR when its
+     * location cannot be inverted.
+     */
     public PVector projectPointer(Screen screen, float x, float y) {
 
-        PMatrix3D screenMat = screen.getLocation();
-        screenMat.invert();
-        PVector transformed = new PVector();
-        screenMat.mult(new PVector(x * drawingSizeX, y * drawingSizeY), transformed);
-        return transformed;
+        PMatrix3D screenMat = screen.getLocationInv(screenPos);
+        if (screenMat == null) {
+            return PaperScreen.INVALID_VECTOR;
+        }
+        float px = x * drawingSizeX;
+        float py = y * drawingSizeY;
+        return new PVector(screenMat.multX(px, py, 0),
+                screenMat.multY(px, py, 0),
+                screenMat.multZ(px, py, 0));
     }
 }
@@ -0,0 +1,174 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.tracking;
+
+import fr.inria.papart.procam.camera.Camera;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.bytedeco.javacpp.ARToolKitPlus;
+import org.bytedeco.javacpp.ARToolKitPlus.ARMarkerInfo;
+import org.bytedeco.javacpp.ARToolKitPlus.ARMultiEachMarkerInfoT;
+import org.bytedeco.javacpp.ARToolKitPlus.ARMultiMarkerInfoT;
+import org.bytedeco.javacpp.ARToolKitPlus.TrackerMultiMarker;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * ARToolKitPlus marker detection shared by all the boards of a camera.
+ *
+ * The markers are detected once per frame. Each detected marker ID is
+ * dispatched to the boards whose configuration contains it, and the pose of
+ * a board is estimated from its own markers only, with its own tracker.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class ARToolKitPlusDetector {
+
+    private final Camera camera;
+    private TrackerMultiMarker detector = null;
+
+    // Boards using each marker ID.
+    private final HashMap<Integer, ArrayList<Object>> boardsById = new HashMap<>();
+
+    // Result of the last detection.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IdentityHashMap<Object, Integer> markersPerBoard = new IdentityHashMap<>();
+    private ARMarkerInfo markers = null;
+    private int nbMarkers = 0;
+    private long detectedSequence = -1;
+
+    public ARToolKitPlusDetector(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Create a tracker for the camera, working on gray images.
+     *
+     * @param camera
+     * @param configFile multi-marker configuration.
+     * @return the tracker.
+     */
+    public static TrackerMultiMarker createTracker(Camera camera, String configFile) {
+
+        // create a tracker that does:
+        //  - 6x6 sized marker images (required for binary markers)
+        //  - samples at a maximum of 6x6
+        //  - works with luminance (gray) images
+        //  - can load a maximum of 0 non-binary pattern
+        //  - can detect a maximum of 8 patterns in one image
+        TrackerMultiMarker tracker = new TrackerMultiMarker(camera.width(), camera.height(), 20, 6, 6, 6, 5);
+
+        // Working in gray images.
+        tracker.setPixelFormat(ARToolKitPlus.PIXEL_FORMAT_LUM);
+        tracker.setBorderWidth(0.125f);
+        tracker.activateAutoThreshold(true);
+        tracker.setPoseEstimator(ARToolKitPlus.POSE_ESTIMATOR_RPP);
+        tracker.setMarkerMode(ARToolKitPlus.MARKER_ID_BCH);
+        tracker.setImageProcessingMode(ARToolKitPlus.IMAGE_HALF_RES);
+        tracker.setUseDetectLite(false);
+
+        // Initialize the tracker, with camera parameters and marker config.
+        if (!tracker.init(camera.getCalibrationARToolkit(), configFile, 1.0f, 10000.f)) {
+            System.err.println("Init ARTOOLKIT Error " + camera.getCalibrationARToolkit() + " " + configFile);
+        }
+        return tracker;
+    }
+
+    /**
+     * Register a board, with the tracker created for it.
+     *
+     * @param board
+     * @param configFile configuration of the board.
+     * @param boardTracker tracker of the board, it holds its configuration.
+     */
+    public void addBoard(Object board, String configFile, TrackerMultiMarker boardTracker) {
+        lock.writeLock().lock();
+        try {
+            if (detector == null) {
+                detector = createTracker(camera, configFile);
+            }
+            ARMultiMarkerInfoT config = boardTracker.getMultiMarkerConfig();
+            for (int i = 0; i < config.marker_num(); i++) {
+                ARMultiEachMarkerInfoT marker = config.marker().position(i);
+                ArrayList<Object> boards = boardsById.get(marker.patt_id());
+                if (boards == null) {
+                    boards = new ArrayList<>();
+                    boardsById.put(marker.patt_id(), boards);
+                }
+                boards.add(board);
+            }
+            // The next detection dispatches to this board too.
+            detectedSequence = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Detect the markers of a frame, unless it is already done.
+     *
+     * @param image gray image.
+     * @param sequence sequence number of the frame, -1 to always detect.
+     */
+    public void detect(IplImage image, long sequence) {
+        lock.writeLock().lock();
+        try {
+            if (sequence >= 0 && sequence == detectedSequence) {
+                return;
+            }
+            detector.calc(image.imageData());
+            nbMarkers = detector.getNumDetectedMarkers();
+            markers = nbMarkers > 0 ? detector.getDetectedMarker(0) : null;
+
+            markersPerBoard.clear();
+            for (int i = 0; i < nbMarkers; i++) {
+                ARMarkerInfo marker = detector.getDetectedMarker(i);
+                ArrayList<Object> boards = boardsById.get(marker.id());
+                if (boards == null) {
+                    continue;
+                }
+                for (Object board : boards) {
+                    Integer count = markersPerBoard.get(board);
+                    markersPerBoard.put(board, count == null ? 1 : count + 1);
+                }
+            }
+            detectedSequence = sequence;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Estimate the pose of a board from the last detection, with the markers
+     * count of the same detection. The pose is in the configuration of its
+     * tracker.
+     *
+     * @param board
+     * @param boardTracker tracker of the board.
+     * @param minMarkers the pose is not estimated with fewer markers of the
+     * board.
+     * @return number of markers of the board, -1 if the pose could not be
+     * estimated.
+     */
+    public int estimatePose(Object board, TrackerMultiMarker boardTracker, int minMarkers) {
+        lock.readLock().lock();
+        try {
+            Integer count = markersPerBoard.get(board);
+            if (markers == null || count == null || count < minMarkers) {
+                return -1;
+            }
+            float error = boardTracker.executeMultiMarkerPoseEstimator(markers, nbMarkers,
+                    boardTracker.getMultiMarkerConfig());
+            return error >= 0 ? count : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
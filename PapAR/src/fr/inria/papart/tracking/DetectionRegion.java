@@ -0,0 +1,202 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.tracking;
+
+import fr.inria.papart.procam.ProjectiveDeviceP;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.cvSetData;
+import processing.core.PMatrix3D;
+import processing.core.PVector;
+
+/**
+ * Region of the camera image where a board is searched. It is predicted from
+ * the last pose of the board, with a margin growing with the motion of the
+ * board in the image and with the number of frames it was missed. After
+ * MAX_MISSES misses in a row, the whole image is searched.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DetectionRegion {
+
+    /**
+     * Misses in a row before searching the whole image.
+     */
+    public static int MAX_MISSES = 5;
+
+    /**
+     * Margin around the projected board, relative to its size.
+     */
+    public static float MARGIN_RATIO = 0.25f;
+
+    /**
+     * Regions smaller than this (in pixels) are enlarged.
+     */
+    public static int MIN_SIZE = 96;
+
+    /**
+     * Regions larger than this fraction of the image are replaced by the
+     * whole image.
+     */
+    public static float MAX_IMAGE_RATIO = 0.7f;
+
+    private boolean hasPosition = false;
+    private int misses = 0;
+
+    // Motion of the board center in the image, in pixels per detection.
+    private float lastCenterX, lastCenterY;
+    private float speed = 0;
+
+    // Current region.
+    private int x, y, width, height;
+
+    private IplImage header = null;
+    private final PVector corner = new PVector();
+    private final PVector cameraPoint = new PVector();
+    private final float[] cornersXYZ = new float[12];
+    private final float[] cornersUV = new float[8];
+
+    /**
+     * Predict the region of the board in the next image.
+     *
+     * @param pose last pose of the board, in camera coordinates.
+     * @param boardWidth
+     * @param boardHeight
+     * @param pdp projective device of the camera.
+     * @param distort true to search in a raw (distorted) image.
+     * @return false if the whole image must be searched.
+     */
+    public boolean predict(PMatrix3D pose, float boardWidth, float boardHeight,
+            ProjectiveDeviceP pdp, boolean distort) {
+        int imageWidth = pdp.getWidth();
+        int imageHeight = pdp.getHeight();
+
+        if (!hasPosition || misses >= MAX_MISSES || pose.m23 <= 0) {
+            return false;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            corner.set(i == 1 || i == 2 ? boardWidth : 0,
+                    i >= 2 ? boardHeight : 0, 0);
+            pose.mult(corner, cameraPoint);
+            cornersXYZ[i * 3] = cameraPoint.x;
+            cornersXYZ[i * 3 + 1] = cameraPoint.y;
+            cornersXYZ[i * 3 + 2] = cameraPoint.z;
+        }
+        pdp.worldToPixels(cornersXYZ, cornersUV, 4, distort);
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 8; i += 2) {
+            minX = Math.min(minX, cornersUV[i]);
+            minY = Math.min(minY, cornersUV[i + 1]);
+            maxX = Math.max(maxX, cornersUV[i]);
+            maxY = Math.max(maxY, cornersUV[i + 1]);
+        }
+
+        float margin = MARGIN_RATIO * Math.max(maxX - minX, maxY - minY)
+                + speed * (1 + misses);
+        float halfWidth = Math.max(MIN_SIZE / 2f, (maxX - minX) / 2 + margin);
+        float halfHeight = Math.max(MIN_SIZE / 2f, (maxY - minY) / 2 + margin);
+        float centerX = (minX + maxX) / 2;
+        float centerY = (minY + maxY) / 2;
+
+        x = Math.max(0, (int) (centerX - halfWidth));
+        y = Math.max(0, (int) (centerY - halfHeight));
+        width = Math.min(imageWidth, (int) Math.ceil(centerX + halfWidth)) - x;
+        height = Math.min(imageHeight, (int) Math.ceil(centerY + halfHeight)) - y;
+
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        return width * height < MAX_IMAGE_RATIO * imageWidth * imageHeight;
+    }
+
+    /**
+     * Image header on the predicted region, sharing the data of the image.
+     * It is valid until the next call.
+     *
+     * @param image full image.
+     * @return the region of the image.
+     */
+    public IplImage crop(IplImage image) {
+        if (header == null
+                || header.width() != width
+                || header.height() != height
+                || header.depth() != image.depth()
+                || header.nChannels() != image.nChannels()) {
+            header = IplImage.createHeader(width, height, image.depth(), image.nChannels());
+        }
+        int bytesPerPixel = image.nChannels() * ((image.depth() & 0xFF) / 8);
+        BytePointer data = image.imageData();
+        data.position(y * image.widthStep() + x * bytesPerPixel);
+        cvSetData(header, data, image.widthStep());
+        return header;
+    }
+
+    /**
+     * Move the corners found in the region to image coordinates.
+     *
+     * @param corners x, y pairs.
+     */
+    public void toImage(double[] corners) {
+        for (int i = 0; i < corners.length; i += 2) {
+            corners[i] += x;
+            corners[i + 1] += y;
+        }
+    }
+
+    /**
+     * The board was found.
+     *
+     * @param corners x, y pairs in image coordinates.
+     */
+    public void found(double[] corners) {
+        float centerX = 0, centerY = 0;
+        int nbCorners = corners.length / 2;
+        for (int i = 0; i < corners.length; i += 2) {
+            centerX += corners[i] / nbCorners;
+            centerY += corners[i + 1] / nbCorners;
+        }
+        if (hasPosition) {
+            speed = (float) Math.hypot(centerX - lastCenterX, centerY - lastCenterY);
+        }
+        lastCenterX = centerX;
+        lastCenterY = centerY;
+        hasPosition = true;
+        misses = 0;
+    }
+
+    /**
+     * The board was not found.
+     */
+    public void missed() {
+        misses++;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.tracking;
+
+import processing.core.PMatrix3D;
+
+/**
+ * Immutable pose of a board seen by a camera. A new snapshot is published
+ * after each update, readers get a consistent pose without locking.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public final class PoseSnapshot {
+
+    /**
+     * Identity pose, before any detection.
+     */
+    public static final PoseSnapshot INITIAL = new PoseSnapshot(new PMatrix3D(), 0, 0, 0, 0);
+
+    private final PMatrix3D matrix;
+    private final long version;
+    private final double timestamp;
+    private final float confidence;
+    private final int nbMarkers;
+
+    /**
+     * @param matrix pose, copied.
+     * @param version incremented for each snapshot of the board.
+     * @param timestamp capture time of the frame, in seconds.
+     * @param confidence from 0 to 1.
+     * @param nbMarkers markers used to compute the pose.
+     */
+    public PoseSnapshot(PMatrix3D matrix, long version, double timestamp,
+            float confidence, int nbMarkers) {
+        this.matrix = matrix.get();
+        this.version = version;
+        this.timestamp = timestamp;
+        this.confidence = confidence;
+        this.nbMarkers = nbMarkers;
+    }
+
+    /**
+     * @return a copy of the pose.
+     */
+    public PMatrix3D getMatrix() {
+        return matrix.get();
+    }
+
+    /**
+     * @param out set to the pose.
+     * @return out.
+     */
+    public PMatrix3D getMatrix(PMatrix3D out) {
+        out.set(matrix);
+        return out;
+    }
+
+    public float getX() {
+        return matrix.m03;
+    }
+
+    public float getY() {
+        return matrix.m13;
+    }
+
+    public float getZ() {
+        return matrix.m23;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public int getNbMarkers() {
+        return nbMarkers;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.benchmark;
+
+import fr.inria.papart.procam.HomographySolver;
+import java.util.concurrent.TimeUnit;
+import org.bytedeco.javacpp.opencv_core.CvMat;
+import static org.bytedeco.javacpp.opencv_calib3d.cvFindHomography;
+import static org.bytedeco.javacpp.opencv_core.CV_32FC1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Four points homography: cvFindHomography with reused matrices against the
+ * closed form and the least squares paths of HomographySolver.
+ *
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=fr.inria.papart.benchmark.HomographyBenchmark
+ * -Dexec.classpathScope=test
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HomographyBenchmark {
+
+    private final float[] src = {0, 0, 640, 0, 640, 480, 0, 480};
+    private final float[] dst = {32.5f, 10.2f, 610.1f, 40.8f, 590.4f, 470.3f, 12.7f, 430.9f};
+    private final double[] h = new double[9];
+
+    // Same four points, twice: forces the least squares path.
+    private final float[] src8 = new float[16];
+    private final float[] dst8 = new float[16];
+
+    private CvMat srcMat, dstMat, homography;
+
+    @Setup
+    public void setup() {
+        srcMat = CvMat.create(2, 4, CV_32FC1);
+        dstMat = CvMat.create(2, 4, CV_32FC1);
+        homography = CvMat.create(3, 3, CV_32FC1);
+        System.arraycopy(src, 0, src8, 0, 8);
+        System.arraycopy(src, 0, src8, 8, 8);
+        System.arraycopy(dst, 0, dst8, 0, 8);
+        System.arraycopy(dst, 0, dst8, 8, 8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        srcMat.release();
+        dstMat.release();
+        homography.release();
+    }
+
+    @Benchmark
+    public CvMat openCV() {
+        for (int i = 0; i < 4; i++) {
+            srcMat.put(i, src[i * 2]);
+            srcMat.put(i + 4, src[i * 2 + 1]);
+            dstMat.put(i, dst[i * 2]);
+            dstMat.put(i + 4, dst[i * 2 + 1]);
+        }
+        cvFindHomography(srcMat, dstMat, homography);
+        return homography;
+    }
+
+    @Benchmark
+    public double[] closedForm() {
+        HomographySolver.solve(src, dst, 4, h);
+        return h;
+    }
+
+    @Benchmark
+    public double[] leastSquares() {
+        HomographySolver.solve(src8, dst8, 8, h);
+        return h;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HomographyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.benchmark;
+
+import fr.inria.papart.procam.MarkerBoard;
+import fr.inria.papart.procam.camera.Camera;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import processing.core.PApplet;
+import processing.core.PMatrix3D;
+
+/**
+ * Pose update of one board for one frame, after the marker detection: copy
+ * of the ARToolKitPlus pose, filtering and publication. Runs with the GC
+ * profiler, only the published PoseSnapshot and its matrix are allocated
+ * (gc.alloc.rate.norm of about 120 B/op).
+ *
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=fr.inria.papart.benchmark.MarkerBoardBenchmark
+ * -Dexec.classpathScope=test
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MarkerBoardBenchmark {
+
+    private static final double FREQ = 30;
+
+    private Camera camera;
+    private MarkerBoard board;
+    private MarkerBoard filteredBoard;
+    private final float[] trans = new float[12];
+    private final PMatrix3D out = new PMatrix3D();
+    private double time = 0;
+    private int frame = 0;
+
+    @Setup
+    public void setup() {
+        PApplet applet = new PApplet();
+        // Any camera, no frame is read.
+        camera = Camera.INVALID_CAMERA;
+        board = new MarkerBoard("board.cfg", 297, 210);
+        board.addExternalTracker(applet, camera);
+        filteredBoard = new MarkerBoard("board.cfg", 297, 210);
+        filteredBoard.addExternalTracker(applet, camera);
+        filteredBoard.setFiltering(camera, FREQ, 4);
+    }
+
+    // Stub of the ARToolKitPlus trans: a board slowly rotating around z.
+    private void nextTrans() {
+        frame++;
+        time += 1 / FREQ;
+        double angle = 0.01 * frame + 0.002 * Math.sin(frame * 7.1);
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        trans[0] = c;
+        trans[1] = -s;
+        trans[2] = 0;
+        trans[3] = 100 + (float) Math.sin(frame * 3.3);
+        trans[4] = s;
+        trans[5] = c;
+        trans[6] = 0;
+        trans[7] = 50;
+        trans[8] = 0;
+        trans[9] = 0;
+        trans[10] = 1;
+        trans[11] = 600;
+    }
+
+    @Benchmark
+    public PMatrix3D update() {
+        nextTrans();
+        board.updatePosition(camera, trans, 1, 4, time);
+        return board.getTransfoMat(camera, out);
+    }
+
+    @Benchmark
+    public PMatrix3D updateFiltered() {
+        nextTrans();
+        filteredBoard.updatePosition(camera, trans, 1, 4, time);
+        return filteredBoard.getTransfoMat(camera, out);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MarkerBoardBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.benchmark;
+
+import fr.inria.papart.procam.Utils;
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import fr.inria.papart.procam.camera.PixelConverter;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Camera image to texture buffer conversion: the per pixel
+ * Utils.byteBufferBRGtoARGB against PixelConverter.
+ *
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=fr.inria.papart.benchmark.PixelConverterBenchmark
+ * -Dexec.classpathScope=test
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PixelConverterBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    private IplImage bgrImage;
+    private ByteBuffer rgbaBuffer;
+
+    @Setup
+    public void setup() {
+        String[] dims = size.split("x");
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+
+        bgrImage = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+        byte[] data = new byte[bgrImage.imageSize()];
+        new Random(42).nextBytes(data);
+        bgrImage.getByteBuffer().put(data);
+
+        rgbaBuffer = ByteBuffer.allocateDirect(width * height * 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bgrImage.release();
+    }
+
+    @Benchmark
+    public ByteBuffer perPixel() {
+        ByteBuffer bgr = bgrImage.getByteBuffer();
+        Utils.byteBufferBRGtoARGB(bgr, rgbaBuffer);
+        return rgbaBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer pixelConverter() {
+        PixelConverter.toRGBA(bgrImage, PixelFormat.BGR, rgbaBuffer);
+        return rgbaBuffer;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PixelConverterBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
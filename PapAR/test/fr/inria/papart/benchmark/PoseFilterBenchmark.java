@@ -0,0 +1,111 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.benchmark;
+
+import fr.inria.papart.multitouch.OneEuroFilter;
+import fr.inria.papart.procam.PoseFilter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Pose filtering of one board for one frame: twelve OneEuroFilters against
+ * the PoseFilter. Runs with the GC profiler, the PoseFilter must not
+ * allocate (gc.alloc.rate.norm of 0 B/op).
+ *
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=fr.inria.papart.benchmark.PoseFilterBenchmark
+ * -Dexec.classpathScope=test
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PoseFilterBenchmark {
+
+    private static final double FREQ = 30;
+
+    private OneEuroFilter[] oneEuroFilters;
+    private PoseFilter poseFilter;
+    private final float[] pose = new float[12];
+    private final float[] out = new float[12];
+    private double time = 0;
+    private int frame = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        oneEuroFilters = new OneEuroFilter[12];
+        for (int i = 0; i < 12; i++) {
+            oneEuroFilters[i] = new OneEuroFilter(FREQ, 4);
+        }
+        poseFilter = new PoseFilter(FREQ, 4);
+    }
+
+    // A board slowly rotating around z, with noise.
+    private void nextPose() {
+        frame++;
+        time += 1 / FREQ;
+        double angle = 0.01 * frame + 0.002 * Math.sin(frame * 7.1);
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        pose[0] = c;
+        pose[1] = -s;
+        pose[2] = 0;
+        pose[3] = 100 + (float) Math.sin(frame * 3.3);
+        pose[4] = s;
+        pose[5] = c;
+        pose[6] = 0;
+        pose[7] = 50;
+        pose[8] = 0;
+        pose[9] = 0;
+        pose[10] = 1;
+        pose[11] = 600;
+    }
+
+    @Benchmark
+    public float[] oneEuroFilters() throws Exception {
+        nextPose();
+        for (int i = 0; i < 12; i++) {
+            out[i] = (float) oneEuroFilters[i].filter(pose[i], time);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] poseFilter() {
+        nextPose();
+        poseFilter.filter(pose, time, out);
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PoseFilterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
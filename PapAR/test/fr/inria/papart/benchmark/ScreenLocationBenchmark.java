@@ -0,0 +1,111 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.benchmark;
+
+import fr.inria.papart.procam.Screen;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import processing.core.PMatrix3D;
+import processing.core.PVector;
+
+/**
+ * Location accesses of the render path for one frame, with half of the
+ * screens moving. Runs with the GC profiler, the in place accessors must not
+ * allocate (gc.alloc.rate.norm of 0 B/op).
+ *
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=fr.inria.papart.benchmark.ScreenLocationBenchmark
+ * -Dexec.classpathScope=test
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScreenLocationBenchmark {
+
+    @Param({"4", "32"})
+    private int nbScreens;
+
+    private Screen[] screens;
+    private final PMatrix3D pose = new PMatrix3D();
+    private final PMatrix3D out = new PMatrix3D();
+    private final PMatrix3D outInv = new PMatrix3D();
+    private int frame = 0;
+
+    @Setup
+    public void setup() {
+        screens = new Screen[nbScreens];
+        for (int i = 0; i < nbScreens; i++) {
+            screens[i] = new Screen(null, new PVector(297, 210), 1);
+            screens[i].setTranslation(10, 20, 0);
+        }
+    }
+
+    private void moveScreens() {
+        frame++;
+        pose.reset();
+        pose.translate(100 + frame % 50, 50, 600);
+        pose.rotateZ(0.01f * (frame % 100));
+        for (int i = 0; i < nbScreens; i += 2) {
+            screens[i].setMainLocation(pose);
+        }
+    }
+
+    @Benchmark
+    public float copies() {
+        moveScreens();
+        float sum = 0;
+        for (int i = 0; i < nbScreens; i++) {
+            PMatrix3D location = screens[i].getLocation();
+            PMatrix3D inv = location.get();
+            inv.invert();
+            sum += location.m03 + inv.m03;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float inPlace() {
+        moveScreens();
+        float sum = 0;
+        for (int i = 0; i < nbScreens; i++) {
+            screens[i].getLocation(out);
+            screens[i].getLocationInv(outInv);
+            sum += out.m03 + outInv.m03;
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ScreenLocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy of the interpolated distortion grids against the exact lens model
+ * (radial and tangential distortion of a 640x480 camera).
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class DistortionGridTest {
+
+    static final int WIDTH = 640, HEIGHT = 480;
+    static final double FX = 600, FY = 600, CX = 320, CY = 240;
+    static final double K1 = -0.25, K2 = 0.1, P1 = 0.001, P2 = -0.0005;
+
+    // Maximum error, in pixels.
+    static final float MAX_ERROR = 0.05f;
+
+    static double[] distort(double x, double y) {
+        double nx = (x - CX) / FX;
+        double ny = (y - CY) / FY;
+        double r2 = nx * nx + ny * ny;
+        double radial = 1 + K1 * r2 + K2 * r2 * r2;
+        double dx = nx * radial + 2 * P1 * nx * ny + P2 * (r2 + 2 * nx * nx);
+        double dy = ny * radial + P1 * (r2 + 2 * ny * ny) + 2 * P2 * nx * ny;
+        return new double[]{dx * FX + CX, dy * FY + CY};
+    }
+
+    static double[] undistort(double x, double y) {
+        // Fixed point iterations, as OpenCV.
+        double ux = x, uy = y;
+        for (int i = 0; i < 20; i++) {
+            double[] d = distort(ux, uy);
+            ux += x - d[0];
+            uy += y - d[1];
+        }
+        return new double[]{ux, uy};
+    }
+
+    @Test
+    public void distortionError() {
+        DistortionGrid grid = new DistortionGrid(DistortionGridTest::distort, WIDTH, HEIGHT);
+        checkError(grid, DistortionGridTest::distort);
+    }
+
+    @Test
+    public void undistortionError() {
+        DistortionGrid grid = new DistortionGrid(DistortionGridTest::undistort, WIDTH, HEIGHT);
+        checkError(grid, DistortionGridTest::undistort);
+    }
+
+    @Test
+    public void outsideOfTheGrid() {
+        DistortionGrid grid = new DistortionGrid(DistortionGridTest::distort, WIDTH, HEIGHT);
+        float[] out = new float[2];
+        grid.map(-500, 2000, out, 0);
+        double[] exact = distort(-500, 2000);
+        assertEquals(exact[0], out[0], 1e-3);
+        assertEquals(exact[1], out[1], 1e-3);
+    }
+
+    @Test
+    public void batch() {
+        DistortionGrid grid = new DistortionGrid(DistortionGridTest::distort, WIDTH, HEIGHT);
+        float[] xy = {10, 20, 320, 240, 630.5f, 470.25f};
+        float[] out = new float[xy.length];
+        grid.map(xy, out, 3);
+
+        float[] single = new float[2];
+        for (int i = 0; i < xy.length; i += 2) {
+            grid.map(xy[i], xy[i + 1], single, 0);
+            assertEquals(single[0], out[i], 0);
+            assertEquals(single[1], out[i + 1], 0);
+        }
+    }
+
+    private void checkError(DistortionGrid grid, DistortionGrid.PixelMapping exact) {
+        Random random = new Random(42);
+        float[] out = new float[2];
+        float maxError = 0;
+        for (int i = 0; i < 10000; i++) {
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            grid.map(x, y, out, 0);
+            double[] expected = exact.map(x, y);
+            maxError = Math.max(maxError, (float) Math.hypot(out[0] - expected[0], out[1] - expected[1]));
+        }
+        assertTrue("Interpolation error " + maxError, maxError < MAX_ERROR);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import java.util.Random;
+import org.bytedeco.javacpp.opencv_core.CvMat;
+import static org.bytedeco.javacpp.opencv_calib3d.cvFindHomography;
+import static org.bytedeco.javacpp.opencv_core.CV_64FC1;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import processing.core.PVector;
+
+/**
+ * HomographySolver against cvFindHomography.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class HomographySolverTest {
+
+    static final double[] H = {1.2, 0.1, 30, -0.05, 0.9, 12, 0.0004, -0.0002, 1};
+
+    // Relative error on the coefficients.
+    static final double MAX_ERROR = 1e-4;
+
+    @Test
+    public void fourPoints() {
+        float[] src = {0, 0, 640, 0, 640, 480, 0, 480};
+        float[] dst = project(src, 4);
+        checkAgainstOpenCV(src, dst, 4);
+    }
+
+    @Test
+    public void randomQuads() {
+        Random random = new Random(42);
+        double[] h = new double[9];
+        int skipped = 0;
+        for (int i = 0; i < 100; i++) {
+            float[] src = randomPoints(random, 4);
+            float[] dst = project(src, 4);
+            if (!HomographySolver.solve(src, dst, 4, h)) {
+                // Nearly aligned random points.
+                skipped++;
+                continue;
+            }
+            checkAgainstOpenCV(src, dst, 4);
+        }
+        assertTrue("Skipped quads " + skipped, skipped < 5);
+    }
+
+    @Test
+    public void leastSquares() {
+        Random random = new Random(42);
+        float[] src = randomPoints(random, 20);
+        float[] dst = project(src, 20);
+        checkAgainstOpenCV(src, dst, 20);
+    }
+
+    @Test
+    public void homogeneousPoints() {
+        float[] src = {0, 0, 640, 0, 640, 480, 0, 480};
+        float[] dst = project(src, 4);
+        PVector[] src3D = new PVector[4];
+        PVector[] dst2D = new PVector[4];
+        for (int i = 0; i < 4; i++) {
+            // Same points, scaled in homogeneous coordinates.
+            src3D[i] = new PVector(src[i * 2] * 2, src[i * 2 + 1] * 2, 2);
+            dst2D[i] = new PVector(dst[i * 2], dst[i * 2 + 1], 1);
+        }
+        double[] h = new double[9];
+        assertTrue(HomographySolver.solve(src3D, dst2D, true, h));
+        checkCoefficients(H, h);
+    }
+
+    @Test
+    public void degenerate() {
+        float[] src = {0, 0, 1, 1, 2, 2, 3, 3};
+        double[] h = new double[9];
+        assertFalse(HomographySolver.solve(src, src, 4, h));
+    }
+
+    private static float[] randomPoints(Random random, int count) {
+        float[] points = new float[count * 2];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextFloat() * 640;
+            points[i + 1] = random.nextFloat() * 480;
+        }
+        return points;
+    }
+
+    private static float[] project(float[] src, int count) {
+        float[] dst = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            HomographySolver.transform(H, src[i * 2], src[i * 2 + 1], dst, i * 2);
+        }
+        return dst;
+    }
+
+    private static void checkAgainstOpenCV(float[] src, float[] dst, int count) {
+        double[] h = new double[9];
+        assertTrue(HomographySolver.solve(src, dst, count, h));
+
+        CvMat srcMat = CvMat.create(2, count, CV_64FC1);
+        CvMat dstMat = CvMat.create(2, count, CV_64FC1);
+        CvMat result = CvMat.create(3, 3, CV_64FC1);
+        for (int i = 0; i < count; i++) {
+            srcMat.put(i, src[i * 2]);
+            srcMat.put(i + count, src[i * 2 + 1]);
+            dstMat.put(i, dst[i * 2]);
+            dstMat.put(i + count, dst[i * 2 + 1]);
+        }
+        cvFindHomography(srcMat, dstMat, result);
+
+        double[] expected = new double[9];
+        for (int i = 0; i < 9; i++) {
+            expected[i] = result.get(i);
+        }
+        srcMat.release();
+        dstMat.release();
+        result.release();
+
+        checkCoefficients(expected, h);
+    }
+
+    private static void checkCoefficients(double[] expected, double[] h) {
+        for (int i = 0; i < 9; i++) {
+            double scale = Math.max(1e-3, Math.abs(expected[i]));
+            assertEquals("h[" + i + "]", expected[i], h[i], MAX_ERROR * scale);
+        }
+    }
+}
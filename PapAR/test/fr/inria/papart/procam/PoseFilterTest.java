@@ -0,0 +1,94 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Filtered poses: valid rotations, static poses reached, shortest rotation
+ * path.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class PoseFilterTest {
+
+    private static final double FREQ = 30;
+
+    // Rotation around the axis (ax, ay, az), normalized, and a translation.
+    private static float[] pose(double angle, double ax, double ay, double az,
+            float tx, float ty, float tz) {
+        double norm = Math.sqrt(ax * ax + ay * ay + az * az);
+        double x = ax / norm, y = ay / norm, z = az / norm;
+        double c = Math.cos(angle), s = Math.sin(angle), t = 1 - c;
+        return new float[]{
+            (float) (t * x * x + c), (float) (t * x * y - s * z), (float) (t * x * z + s * y), tx,
+            (float) (t * x * y + s * z), (float) (t * y * y + c), (float) (t * y * z - s * x), ty,
+            (float) (t * x * z - s * y), (float) (t * y * z + s * x), (float) (t * z * z + c), tz};
+    }
+
+    private static void assertOrthonormal(float[] m) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                float dot = m[i * 4] * m[j * 4] + m[i * 4 + 1] * m[j * 4 + 1]
+                        + m[i * 4 + 2] * m[j * 4 + 2];
+                assertEquals(i == j ? 1 : 0, dot, 1e-5);
+            }
+        }
+        float det = m[0] * (m[5] * m[10] - m[6] * m[9])
+                - m[1] * (m[4] * m[10] - m[6] * m[8])
+                + m[2] * (m[4] * m[9] - m[5] * m[8]);
+        assertEquals(1, det, 1e-5);
+    }
+
+    @Test
+    public void orthonormal() {
+        PoseFilter filter = new PoseFilter(FREQ, 1);
+        filter.setBeta(0.01);
+        Random random = new Random(42);
+        float[] out = new float[12];
+        for (int i = 0; i < 500; i++) {
+            float[] measure = pose(random.nextDouble() * 2 * Math.PI,
+                    random.nextGaussian(), random.nextGaussian(), random.nextGaussian(),
+                    random.nextFloat() * 100, random.nextFloat() * 100, 600);
+            filter.filter(measure, i / FREQ, out);
+            assertOrthonormal(out);
+        }
+    }
+
+    @Test
+    public void staticPose() {
+        PoseFilter filter = new PoseFilter(FREQ, 1);
+        float[] out = new float[12];
+        filter.filter(pose(0.3, 1, 0, 0, 0, 0, 500), 0, out);
+
+        float[] target = pose(1.2, 1, 2, 3, 100, 50, 600);
+        for (int i = 1; i < 300; i++) {
+            filter.filter(target, i / FREQ, out);
+        }
+        assertArrayEquals(target, out, 1e-4f);
+    }
+
+    @Test
+    public void shortestPath() {
+        // Around -115 degrees, the quaternion of a z rotation changes of
+        // sign: from -100 to -130 degrees, the measures are opposed.
+        PoseFilter filter = new PoseFilter(FREQ, 1);
+        float[] out = new float[12];
+        filter.filter(pose(Math.toRadians(-100), 0, 0, 1, 0, 0, 500), 0, out);
+        filter.filter(pose(Math.toRadians(-130), 0, 0, 1, 0, 0, 500), 1 / FREQ, out);
+
+        assertOrthonormal(out);
+        // Still a z rotation, between the two.
+        assertEquals(1, out[10], 1e-5);
+        double angle = Math.toDegrees(Math.atan2(out[4], out[0]));
+        assertTrue("angle " + angle, angle < -100 && angle > -130);
+    }
+}
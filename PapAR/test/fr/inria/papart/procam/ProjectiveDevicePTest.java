@@ -0,0 +1,197 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam;
+
+import java.io.File;
+import java.util.Random;
+import org.bytedeco.javacpp.opencv_core.CvMat;
+import static org.bytedeco.javacpp.opencv_core.CV_64FC1;
+import org.bytedeco.javacv.CameraDevice;
+import org.bytedeco.javacv.ProjectiveDevice;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import processing.core.PVector;
+import toxi.geom.Vec3D;
+
+/**
+ * Batch projections against the single point ones, and the distortion grids
+ * against the exact JavaCV model. 640x480 camera with the lens distortion of
+ * DistortionGridTest.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class ProjectiveDevicePTest {
+
+    static ProjectiveDeviceP device;
+
+    @BeforeClass
+    public static void loadDevice() throws Exception {
+        CameraDevice camera = new CameraDevice("camera");
+        camera.imageWidth = DistortionGridTest.WIDTH;
+        camera.imageHeight = DistortionGridTest.HEIGHT;
+        camera.cameraMatrix = CvMat.create(3, 3, CV_64FC1);
+        camera.cameraMatrix.put(DistortionGridTest.FX, 0, DistortionGridTest.CX,
+                0, DistortionGridTest.FY, DistortionGridTest.CY,
+                0, 0, 1);
+        camera.distortionCoeffs = CvMat.create(1, 4, CV_64FC1);
+        camera.distortionCoeffs.put(DistortionGridTest.K1, DistortionGridTest.K2,
+                DistortionGridTest.P1, DistortionGridTest.P2);
+
+        File file = File.createTempFile("camera", ".yaml");
+        file.deleteOnExit();
+        CameraDevice.write(file.getAbsolutePath(), camera);
+        device = ProjectiveDeviceP.loadCameraDevice(null, file.getAbsolutePath());
+    }
+
+    // Points in front of the camera, some are out of the image.
+    private static float[] randomPoints(Random random, int count) {
+        float[] xyz = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            xyz[i * 3] = random.nextFloat() * 600 - 300;
+            xyz[i * 3 + 1] = random.nextFloat() * 400 - 200;
+            xyz[i * 3 + 2] = random.nextFloat() * 1000 + 500;
+        }
+        return xyz;
+    }
+
+    @Test
+    public void gridsAgainstJavaCV() {
+        ProjectiveDevice exact = device.getDevice();
+        Random random = new Random(42);
+        float[] out = new float[2];
+        float maxDistort = 0, maxUndistort = 0;
+        for (int i = 0; i < 10000; i++) {
+            float x = random.nextFloat() * DistortionGridTest.WIDTH;
+            float y = random.nextFloat() * DistortionGridTest.HEIGHT;
+
+            device.getDistortionGrid().map(x, y, out, 0);
+            double[] expected = exact.distort(x, y);
+            maxDistort = Math.max(maxDistort, (float) Math.hypot(out[0] - expected[0], out[1] - expected[1]));
+
+            device.getUndistortionGrid().map(x, y, out, 0);
+            expected = exact.undistort(x, y);
+            maxUndistort = Math.max(maxUndistort, (float) Math.hypot(out[0] - expected[0], out[1] - expected[1]));
+        }
+        assertTrue("Distortion error " + maxDistort, maxDistort < DistortionGridTest.MAX_ERROR);
+        assertTrue("Undistortion error " + maxUndistort, maxUndistort < DistortionGridTest.MAX_ERROR);
+
+        // Single point projection: rounded pixel, then distorted.
+        float[] xyz = randomPoints(random, 1000);
+        for (int i = 0; i < 1000; i++) {
+            PVector pt = new PVector(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+            PVector px = device.worldToPixel(pt, false);
+            PVector distorted = device.worldToPixel(pt, true);
+            double[] expected = exact.distort(px.x, px.y);
+            assertEquals(expected[0], distorted.x, DistortionGridTest.MAX_ERROR);
+            assertEquals(expected[1], distorted.y, DistortionGridTest.MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void worldToPixels() {
+        int count = 1000;
+        float[] xyz = randomPoints(new Random(42), count);
+        float[] uv = new float[count * 2];
+        device.worldToPixels(xyz, uv, count, false);
+
+        for (int i = 0; i < count; i++) {
+            PVector px = device.worldToPixelReal(new PVector(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]));
+            assertEquals(px.x, uv[i * 2], 1e-3);
+            assertEquals(px.y, uv[i * 2 + 1], 1e-3);
+        }
+    }
+
+    @Test
+    public void worldToPixelsDistort() {
+        int count = 1000;
+        float[] xyz = randomPoints(new Random(42), count);
+        float[] uv = new float[count * 2];
+        device.worldToPixels(xyz, uv, count, true);
+
+        float[] single = new float[2];
+        for (int i = 0; i < count; i++) {
+            PVector px = device.worldToPixelReal(new PVector(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]));
+            device.getDistortionGrid().map(px.x, px.y, single, 0);
+            assertEquals(single[0], uv[i * 2], 1e-3);
+            assertEquals(single[1], uv[i * 2 + 1], 1e-3);
+
+            // Single point projection, rounded before the distortion.
+            if (px.x >= 0 && px.x < DistortionGridTest.WIDTH - 1
+                    && px.y >= 0 && px.y < DistortionGridTest.HEIGHT - 1) {
+                PVector rounded = device.worldToPixel(new PVector(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]), true);
+                assertEquals(rounded.x, uv[i * 2], 1);
+                assertEquals(rounded.y, uv[i * 2 + 1], 1);
+            }
+        }
+    }
+
+    @Test
+    public void worldToPixelsParallel() {
+        int count = ProjectiveDeviceP.PARALLEL_MIN_POINTS * 3 + 17;
+        float[] xyz = randomPoints(new Random(42), count);
+        float[] sequential = new float[count * 2];
+        float[] parallel = new float[count * 2];
+        device.worldToPixels(xyz, sequential, count, true, false);
+        device.worldToPixels(xyz, parallel, count, true, true);
+        assertArrayEquals(sequential, parallel, 0);
+    }
+
+    @Test
+    public void pixelsToWorld() {
+        int count = 1000;
+        Random random = new Random(42);
+        float[] uvd = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            uvd[i * 3] = random.nextInt(DistortionGridTest.WIDTH);
+            uvd[i * 3 + 1] = random.nextInt(DistortionGridTest.HEIGHT);
+            uvd[i * 3 + 2] = random.nextFloat() * 1000 + 500;
+        }
+        float[] xyz = new float[count * 3];
+        device.pixelsToWorld(uvd, xyz, count, false);
+
+        Vec3D single = new Vec3D();
+        for (int i = 0; i < count; i++) {
+            device.pixelToWorld((int) uvd[i * 3], (int) uvd[i * 3 + 1], uvd[i * 3 + 2], single);
+            assertEquals(single.x, xyz[i * 3], 1e-3);
+            assertEquals(single.y, xyz[i * 3 + 1], 1e-3);
+            assertEquals(single.z, xyz[i * 3 + 2], 0);
+        }
+
+        // In place, in parallel.
+        int large = ProjectiveDeviceP.PARALLEL_MIN_POINTS * 2;
+        float[] points = new float[large * 3];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = uvd[i % uvd.length];
+        }
+        float[] sequential = new float[large * 3];
+        device.pixelsToWorld(points, sequential, large, true, false);
+        device.pixelsToWorld(points, points, large, true, true);
+        assertArrayEquals(sequential, points, 0);
+    }
+
+    @Test
+    public void roundTrip() {
+        int count = 1000;
+        float[] xyz = randomPoints(new Random(42), count);
+        float[] uvd = new float[count * 3];
+        float[] uv = new float[count * 2];
+        device.worldToPixels(xyz, uv, count, true);
+        for (int i = 0; i < count; i++) {
+            uvd[i * 3] = uv[i * 2];
+            uvd[i * 3 + 1] = uv[i * 2 + 1];
+            uvd[i * 3 + 2] = xyz[i * 3 + 2];
+        }
+        float[] back = new float[count * 3];
+        device.pixelsToWorld(uvd, back, count, true);
+
+        // Errors of both grids and of the iterative undistortion, in mm.
+        assertArrayEquals(xyz, back, 1f);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import fr.inria.papart.procam.camera.Camera.PixelFormat;
+import java.awt.GraphicsEnvironment;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_16U;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import processing.core.PApplet;
+
+/**
+ * Camera images drawn with a plain image(), without shader. Needs an OpenGL
+ * 3.3 context, Mesa's software renderer works:
+ * LIBGL_ALWAYS_SOFTWARE=1 xvfb-run mvn test -Dtest=CamImageTest
+ *
+ * It is skipped when no display is available.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CamImageTest {
+
+    static final int SIZE = 10;
+
+    public static class DrawSketch extends PApplet {
+
+        final CountDownLatch drawn = new CountDownLatch(1);
+        int bgr, rgba, gray, depth;
+
+        @Override
+        public void settings() {
+            size(SIZE * 4, SIZE, P2D);
+        }
+
+        @Override
+        public void draw() {
+            background(0);
+
+            // Pure red, in each layout.
+            CamImageColor bgrImage = new CamImageColor(this, SIZE, SIZE);
+            bgrImage.setSourceFormat(PixelFormat.BGR);
+            bgrImage.update(fill(3, 0, 0, 255, 0));
+            image(bgrImage, 0, 0);
+
+            CamImageColor rgbaImage = new CamImageColor(this, SIZE, SIZE);
+            rgbaImage.setSourceFormat(PixelFormat.RGBA);
+            rgbaImage.update(fill(4, 255, 0, 0, 255));
+            image(rgbaImage, SIZE, 0);
+
+            CamImageGray grayImage = new CamImageGray(this, SIZE, SIZE);
+            grayImage.setSourceFormat(PixelFormat.GRAY);
+            grayImage.update(fill(1, 128, 0, 0, 0));
+            image(grayImage, SIZE * 2, 0);
+
+            // Raw 16 bits value, half of the range: mid gray.
+            CamImageGray depthImage = new CamImageGray(this, SIZE, SIZE);
+            depthImage.setSourceFormat(PixelFormat.DEPTH_KINECT_MM);
+            IplImage depthIpl = IplImage.create(SIZE, SIZE, IPL_DEPTH_16U, 1);
+            ByteBuffer depthData = depthIpl.getByteBuffer();
+            for (int i = 0; i < depthIpl.imageSize(); i += 2) {
+                depthData.putShort(i, (short) 0x8080);
+            }
+            depthImage.update(depthIpl);
+            image(depthImage, SIZE * 3, 0);
+
+            loadPixels();
+            int y = SIZE / 2;
+            bgr = pixels[y * width + SIZE / 2];
+            rgba = pixels[y * width + SIZE + SIZE / 2];
+            gray = pixels[y * width + SIZE * 2 + SIZE / 2];
+            depth = pixels[y * width + SIZE * 3 + SIZE / 2];
+            noLoop();
+            drawn.countDown();
+        }
+
+        private IplImage fill(int nChannels, int c0, int c1, int c2, int c3) {
+            IplImage img = IplImage.create(SIZE, SIZE, IPL_DEPTH_8U, nChannels);
+            ByteBuffer data = img.getByteBuffer();
+            int[] values = {c0, c1, c2, c3};
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    for (int c = 0; c < nChannels; c++) {
+                        data.put(y * img.widthStep() + x * nChannels + c, (byte) values[c]);
+                    }
+                }
+            }
+            return img;
+        }
+    }
+
+    @Test
+    public void drawWithoutShader() throws InterruptedException {
+        assumeTrue(!GraphicsEnvironment.isHeadless());
+
+        DrawSketch sketch = new DrawSketch();
+        PApplet.runSketch(new String[]{"CamImageTest"}, sketch);
+        // No OpenGL context.
+        assumeTrue(sketch.drawn.await(20, TimeUnit.SECONDS));
+
+        assertEquals(0xFFFF0000, sketch.bgr);
+        assertEquals(0xFFFF0000, sketch.rgba);
+        assertEquals(0xFF808080, sketch.gray);
+        assertEquals(0xFF808080, sketch.depth);
+        sketch.getSurface().setVisible(false);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Frames read during one draw, while the grabber publishes new ones.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class CameraFrameTest {
+
+    private static IplImage image(int value) {
+        IplImage img = IplImage.create(8, 8, IPL_DEPTH_8U, 1);
+        for (int i = 0; i < img.imageSize(); i++) {
+            img.getByteBuffer().put(i, (byte) value);
+        }
+        return img;
+    }
+
+    @Test
+    public void twoReadsInOneFrame() {
+        Camera camera = new CameraOpenCV(-1);
+        camera.forceCurrentImage(image(1));
+        camera.nextFrame();
+
+        IplImage first = camera.getIplImage();
+        assertEquals(1, camera.getFrameSequence());
+
+        // The grabber goes on, through all the free buffers.
+        camera.forceCurrentImage(image(2));
+        camera.forceCurrentImage(image(3));
+        camera.forceCurrentImage(image(4));
+
+        IplImage second = camera.getIplImage();
+        assertSame(first, second);
+        assertEquals(1, camera.getFrameSequence());
+        assertEquals(1, second.getByteBuffer().get(0));
+
+        // Next draw.
+        assertTrue(camera.nextFrame());
+        assertEquals(4, camera.getFrameSequence());
+        assertEquals(4, camera.getIplImage().getByteBuffer().get(0));
+        assertFalse(camera.nextFrame());
+    }
+
+    @Test
+    public void firstFrame() {
+        Camera camera = new CameraOpenCV(-1);
+        assertNull(camera.getIplImage());
+        camera.forceCurrentImage(image(1));
+        // Taken as soon as it is there, even without a parent applet.
+        assertNotNull(camera.getIplImage());
+    }
+}
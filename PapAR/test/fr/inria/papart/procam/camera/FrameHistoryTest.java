@@ -0,0 +1,64 @@
+/*
+ *  Copyright Inria and Bordeaux University.
+ *  Author Jeremy Laviole. jeremy.laviole@inria.fr
+ *  PapAR project is the open-source version of the
+ *  PapARt project. License is LGPLv3, distributed with the sources.
+ *  This project can also distributed with standard commercial
+ *  licence for closed-sources projects.
+ */
+package fr.inria.papart.procam.camera;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_16U;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Closest frame of the history, kept while the writer goes on.
+ *
+ * @author Jeremy Laviole <jeremy.laviole@inria.fr>
+ */
+public class FrameHistoryTest {
+
+    private final IplImage model = IplImage.create(4, 4, IPL_DEPTH_16U, 1);
+
+    private void write(FrameHistory history, int value, long captureTime) {
+        IplImage buffer = history.getWriteBuffer(model);
+        buffer.getByteBuffer().put(0, (byte) value);
+        history.publish(captureTime);
+    }
+
+    @Test
+    public void closestFrame() {
+        FrameHistory history = new FrameHistory(new CameraOpenCV(-1), 4);
+        assertNull(history.getClosest(0));
+
+        for (int i = 1; i <= 4; i++) {
+            write(history, i, i * 1000);
+        }
+        CameraFrame closest = history.getClosest(2400);
+        assertEquals(2000, closest.getCaptureTime());
+        assertEquals(2, closest.getImage().getByteBuffer().get(0));
+    }
+
+    @Test
+    public void readFramesNotOverwritten() {
+        FrameHistory history = new FrameHistory(new CameraOpenCV(-1), 4);
+        write(history, 1, 1000);
+        history.update();
+        CameraFrame front = history.getFront();
+        write(history, 2, 2000);
+        CameraFrame picked = history.getClosest(2000);
+
+        for (int i = 3; i < 20; i++) {
+            write(history, i, i * 1000);
+        }
+        assertSame(front, history.getFront());
+        assertEquals(1, front.getImage().getByteBuffer().get(0));
+        assertEquals(2, picked.getImage().getByteBuffer().get(0));
+        assertEquals(2000, picked.getCaptureTime());
+
+        assertTrue(history.update());
+        assertEquals(19, history.getFront().getSequence());
+    }
+}